@@ -1,4 +1,9 @@
-import {Linking, NativeModules, Platform} from 'react-native';
+import {
+  Linking,
+  NativeEventEmitter,
+  NativeModules,
+  Platform,
+} from 'react-native';
 import {setCustomSourceTransformer} from 'react-native/Libraries/Image/resolveAssetSource';
 
 export class LiveBundle {
@@ -16,6 +21,10 @@ export class LiveBundle {
       this.BUNDLE_ID = nm.BUNDLE_ID;
       this.IS_BUNDLE_INSTALLED = nm.IS_BUNDLE_INSTALLED;
       this.IS_SESSION_STARTED = nm.IS_SESSION_STARTED;
+      // Assets shipped with the installed bundle (same layout as in the storage)
+      this.BUNDLE_FILES_DIR = nm.BUNDLE_FILES_DIR;
+      // Paths of the shipped assets, relative to BUNDLE_FILES_DIR
+      this.BUNDLE_FILES = new Set(nm.BUNDLE_FILES ?? []);
       if (this.IS_BUNDLE_INSTALLED) {
         setCustomSourceTransformer(resolver => {
           const {hash} = resolver.asset;
@@ -25,7 +34,13 @@ export class LiveBundle {
             /(^.*)(\..+)/,
             `$1.${Platform.OS}$2`,
           );
-          res.uri = this.getUrl(`assets/${hash}/${platformFileName}`);
+          const assetPath = `assets/${hash}/${platformFileName}`;
+          // Assets missing from the installed bundle (not shipped, or bundle installed from a
+          // patch) are resolved from the storage
+          res.uri =
+            this.BUNDLE_FILES_DIR && this.BUNDLE_FILES.has(assetPath)
+              ? `file://${this.BUNDLE_FILES_DIR}/${assetPath}`
+              : this.getUrl(assetPath);
           return res;
         });
       }
@@ -55,6 +70,11 @@ export class LiveBundle {
    */
   async getMetadata(type, id) {
     console.log(`[LiveBundle] getMetadata(${type}, ${id})`);
+    if (NativeModules.LiveBundle.getMetadata) {
+      // Native fetch, served from the native http cache when possible
+      return JSON.parse(await NativeModules.LiveBundle.getMetadata(type, id));
+    }
+    const startTime = Date.now();
     const res = await fetch(
       this.getUrl(
         `${type === 'PACKAGE' ? 'packages' : 'sessions'}/${id}/metadata.json`,
@@ -67,7 +87,24 @@ export class LiveBundle {
         ).toString()}`,
       );
     }
-    return res.json();
+    const metadata = await res.json();
+    NativeModules.LiveBundle.recordMetric?.(
+      'metadataFetch',
+      Date.now() - startTime,
+    );
+    return metadata;
+  }
+
+  /**
+   * Gets LiveBundle latency metrics
+   * Stats (count, min, max, mean, p50, p90, p99) of the most recent durations,
+   * in ms, of each phase of switching to a bundle or session : metadataFetch,
+   * connect, transfer, inflate, loaderSwap, hostProbe and contextReady, as well
+   * as of the startup cost of LiveBundle : moduleInit and moduleWarmup
+   */
+  async getMetrics() {
+    console.log('[LiveBundle] getMetrics()');
+    return NativeModules.LiveBundle.getMetrics?.() ?? {};
   }
 
   /**
@@ -86,6 +123,67 @@ export class LiveBundle {
     return this.getMetadata('SESSION', sessionId);
   }
 
+  /**
+   * Updates the local catalog of LiveBundle packages from the package catalog
+   * feed of the storage (packages/catalog.json)
+   * Only new or modified packages are indexed
+   * @returns {number} Number of packages added to the catalog
+   */
+  async updatePackageCatalog() {
+    console.log('[LiveBundle] updatePackageCatalog()');
+    return NativeModules.LiveBundle.updatePackageCatalog?.() ?? 0;
+  }
+
+  /**
+   * Lists packages of the local catalog, most recent first, one page at a
+   * time. The catalog contains the packages of the storage catalog feed, and
+   * all packages whose metadata was fetched
+   * @param {object} filters Optional branch, pr, platform and text filters
+   * @param {string} cursor Cursor of the previous page, null for the first page
+   * @param {number} limit Maximum number of packages of the page (up to 100)
+   * @returns {object} Page containing package summaries (packages) and the
+   * cursor of the next page (cursor, null if this is the last page)
+   */
+  async queryPackages(filters, cursor, limit = 20) {
+    if (!NativeModules.LiveBundle.queryPackages) {
+      return {packages: [], cursor: null};
+    }
+    return JSON.parse(
+      await NativeModules.LiveBundle.queryPackages(
+        filters ?? null,
+        cursor ?? null,
+        limit,
+      ),
+    );
+  }
+
+  /**
+   * Gets the JS engine the application is running on
+   * @returns {string} Either hermes or jsc
+   */
+  getJsEngine() {
+    return global.HermesInternal ? 'hermes' : 'jsc';
+  }
+
+  /**
+   * Gets the bundles of a LiveBundle package that can be installed on this
+   * platform. Bundles precompiled for the current JS engine (engine metadata
+   * field) are preferred over plain JS bundles of the same flavor, and bundles
+   * precompiled for another engine are left out.
+   * @param {object} pkgMetadata The package metadata
+   */
+  getPlatformBundles(pkgMetadata) {
+    const engine = this.getJsEngine();
+    const bundles = pkgMetadata.bundles.filter(
+      b => b.platform === Platform.OS && (!b.engine || b.engine === engine),
+    );
+    return bundles.filter(
+      b =>
+        b.engine === engine ||
+        !bundles.some(o => o.engine === engine && !!o.dev === !!b.dev),
+    );
+  }
+
   /**
    * Launches LiveBundle UI
    */
@@ -137,14 +235,66 @@ export class LiveBundle {
     return NativeModules.LiveBundle.downloadBundle(packageId, bundleId);
   }
 
+  /**
+   * Prefetches all the bundles of a LiveBundle package in the background, so
+   * that installing any of them later on is instant
+   * Resolves to false if prefetching was skipped because of device constraints
+   * @param {string} packageId The id of the LiveBundle package to prefetch
+   * @param {object} options Optional requireUnmeteredNetwork and
+   * requireBatteryNotLow constraints (both default to true)
+   */
+  async prefetchPackage(packageId, options) {
+    console.log(`[LiveBundle] prefetchPackage(${packageId})`);
+    return NativeModules.LiveBundle.prefetchPackage?.(
+      packageId,
+      options ?? null,
+    );
+  }
+
+  /**
+   * Cancels an ongoing LiveBundle bundle download
+   * The promise returned by downloadBundle will be rejected with
+   * E_BUNDLE_DOWNLOAD_CANCELED error code
+   * @param {string} packageId The id of the LiveBundle package containing the bundle
+   * @param {string} bundleId The id of the bundle being downloaded
+   */
+  async cancelDownload(packageId, bundleId) {
+    console.log(`[LiveBundle] cancelDownload(${packageId}, ${bundleId})`);
+    return NativeModules.LiveBundle.cancelDownload?.(packageId, bundleId);
+  }
+
+  /**
+   * Adds a listener of bundle download progress events
+   * @param {function} listener Called with an object containing packageId,
+   * bundleId, bytesDone, bytesTotal, bytesPerSecond and etaMs (bytesTotal and
+   * etaMs are -1 when unknown)
+   * @returns {object} Subscription to remove() once done listening
+   */
+  addDownloadProgressListener(listener) {
+    if (!this.eventEmitter) {
+      this.eventEmitter = new NativeEventEmitter(NativeModules.LiveBundle);
+    }
+    return this.eventEmitter.addListener(
+      'LiveBundleDownloadProgress',
+      listener,
+    );
+  }
+
   /**
    * Launches a LiveBundle live session (connecting to remote package) given the session id
+   * The session metadata can list several candidate packager hosts (hosts),
+   * which are probed in parallel on Android to connect to the fastest
+   * reachable one. Rejects with E_SESSION_HOST_UNREACHABLE error code if none
+   * of them can be reached
    * @param {string} sessionId The id of the session to launch
    */
   async launchLiveSession(sessionId) {
     console.log(`[LiveBundle] launchLiveSession(${sessionId})`);
     const pkgMetadata = await this.getSessionMetadata(sessionId);
-    return NativeModules.LiveBundle.launchLiveSession(pkgMetadata.host);
+    const hosts = pkgMetadata.hosts ?? [pkgMetadata.host];
+    return NativeModules.LiveBundle.launchLiveSession(
+      Platform.OS === 'android' ? hosts : hosts[0],
+    );
   }
 
   /**
@@ -155,8 +305,8 @@ export class LiveBundle {
   async donwloadBundleFlavor(packageId, flavor) {
     console.log(`[LiveBundle] donwloadBundleFlavor(${packageId}, ${flavor})`);
     const pkgMetadata = await this.getPackageMetadata(packageId);
-    const bundle = pkgMetadata.bundles.find(
-      b => (flavor === 'dev' ? b.dev : !b.dev) && b.platform === Platform.OS,
+    const bundle = this.getPlatformBundles(pkgMetadata).find(b =>
+      flavor === 'dev' ? b.dev : !b.dev,
     );
     if (!bundle) {
       throw new Error(
@@ -188,6 +338,9 @@ export class LiveBundle {
    * Installs a LiveBundle bundle after download
    * This will recreate the react application context with
    * the new bundle
+   * Rejects with E_BUNDLE_VALIDATION_ERROR error code, without recreating the
+   * react application context, if the bundle is corrupted or was built for
+   * another JS engine or React Native version than the ones of the app
    */
   async installBundle() {
     console.log('[LiveBundle] installBundle()');
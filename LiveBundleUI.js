@@ -34,6 +34,40 @@ const LoadingScreen = () => (
   </View>
 );
 
+const formatMegaBytes = bytes => `${(bytes / (1024 * 1024)).toFixed(1)} MB`;
+
+const DownloadScreen = ({progress, onCancel}) => (
+  <View style={styles.subContainer}>
+    <Image
+      resizeMode="contain"
+      style={styles.logo}
+      source={require('./assets/logo.png')}
+    />
+    <Text style={styles.text}>Downloading Bundle</Text>
+    {progress && (
+      <Text style={styles.bottomText2}>
+        {progress.bytesTotal > 0
+          ? `${formatMegaBytes(progress.bytesDone)} / ${formatMegaBytes(
+              progress.bytesTotal,
+            )}`
+          : formatMegaBytes(progress.bytesDone)}
+      </Text>
+    )}
+    {progress && (
+      <Text style={styles.bottomText2}>
+        {`${formatMegaBytes(progress.bytesPerSecond)}/s${
+          progress.etaMs >= 0
+            ? ` - ${Math.ceil(progress.etaMs / 1000)}s remaining`
+            : ''
+        }`}
+      </Text>
+    )}
+    <TouchableOpacity style={styles.button} onPress={onCancel}>
+      <Text style={styles.buttonText}>Cancel</Text>
+    </TouchableOpacity>
+  </View>
+);
+
 const BundleFlavorSelectionScreen = ({platformBundles, onBundleSelected}) => (
   <View style={styles.subContainer}>
     <Image
@@ -128,6 +162,7 @@ export class LiveBundleUI extends Component<{}> {
     super(props);
     this.state = {
       bundleId: undefined,
+      downloadProgress: undefined,
       isDownloadCompleted: false,
       isScanInitiated: false,
       packageId: props?.packageId,
@@ -137,9 +172,24 @@ export class LiveBundleUI extends Component<{}> {
     };
   }
 
+  componentDidMount() {
+    this.downloadProgressSubscription = livebundle.addDownloadProgressListener(
+      downloadProgress => {
+        if (downloadProgress.bundleId === this.state.bundleId) {
+          this.setState({downloadProgress});
+        }
+      },
+    );
+  }
+
+  componentWillUnmount() {
+    this.downloadProgressSubscription?.remove();
+  }
+
   render() {
     const {
       bundleId,
+      downloadProgress,
       isDownloadCompleted,
       isScanInitiated,
       packageId,
@@ -177,9 +227,7 @@ export class LiveBundleUI extends Component<{}> {
     } else if (packageId && packageMetadata && !bundleId) {
       // If we have the package metadata, we need to check if there
       // is one or more bundle(s) in the package
-      const platformBundles = packageMetadata.bundles.filter(
-        b => b.platform === Platform.OS,
-      );
+      const platformBundles = livebundle.getPlatformBundles(packageMetadata);
       if (platformBundles.length === 0) {
         this.setState({
           error: new Error(
@@ -202,15 +250,38 @@ export class LiveBundleUI extends Component<{}> {
       }
     } else if (packageId && bundleId) {
       // If we have a packageId and a bundleId then we can download
-      // the bundle from the storage
-      livebundle
-        .downloadBundle(packageId, bundleId)
-        .then(() => {
-          this.setState({
-            isDownloadCompleted: true,
+      // the bundle from the storage (only once, as this screen is
+      // rendered again on each download progress update)
+      if (this.downloadingBundleId !== bundleId) {
+        this.downloadingBundleId = bundleId;
+        livebundle
+          .downloadBundle(packageId, bundleId)
+          .then(() => {
+            this.setState({
+              isDownloadCompleted: true,
+            });
+          })
+          .catch(error => {
+            this.downloadingBundleId = undefined;
+            if (error.code === 'E_BUNDLE_DOWNLOAD_CANCELED') {
+              // Back to LiveBundle main screen
+              this.setState({
+                bundleId: undefined,
+                downloadProgress: undefined,
+                packageId: undefined,
+                packageMetadata: undefined,
+              });
+            } else {
+              this.setState({error});
+            }
           });
-        })
-        .catch(error => this.setState({error}));
+      }
+      screen = (
+        <DownloadScreen
+          progress={downloadProgress}
+          onCancel={() => livebundle.cancelDownload(packageId, bundleId)}
+        />
+      );
     } else if (isScanInitiated) {
       // If the scanning has been triggered, show the scanner
       screen = (
@@ -0,0 +1,222 @@
+package io.livebundle;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Throughput of inflating a zipped bundle to its target file, for realistic bundle sizes and
+ * various buffer sizes, comparing the following strategies :
+ *
+ * <ul>
+ *   <li>zipInputStream : streaming inflate of the zip, as done by LiveBundle (BundleInflater)
+ *   <li>zipInputStreamSha256 : same, also computing the SHA-256 digest of the bundle
+ *   <li>gzip : streaming decode of the gzip compressed bundle (gzip bundle format)
+ *   <li>zipFile : zip saved to disk first, then read back through ZipFile
+ *   <li>inflater : raw Inflater over the deflated data of the first zip entry
+ * </ul>
+ *
+ * <p>All strategies sync the target file to disk, as LiveBundle does before committing a bundle.
+ * Run with ./gradlew :core:jmh (from android directory). The gc profiler reports allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BundleInflateBenchmark {
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+
+    @Param({"1", "8", "15"})
+    public int bundleSizeMb;
+
+    @Param({"8", "64", "256", "1024"})
+    public int bufferSizeKb;
+
+    private byte[] mZipped;
+    private byte[] mGzipped;
+    private File mZipFile;
+    private File mTarget;
+    private byte[] mBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] bundle = generateBundle(bundleSizeMb * 1024 * 1024);
+        mZipped = zip(bundle);
+        mGzipped = gzip(bundle);
+        mZipFile = File.createTempFile("LB-Bundle", ".zip");
+        FileOutputStream fout = new FileOutputStream(mZipFile);
+        try {
+            fout.write(mZipped);
+        } finally {
+            fout.close();
+        }
+        mTarget = File.createTempFile("LB-Bundle", ".js");
+        mBuffer = new byte[bufferSizeKb * 1024];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mZipFile.delete();
+        mTarget.delete();
+    }
+
+    @Benchmark
+    public long zipInputStream() throws IOException {
+        return BundleInflater.inflate(
+                new ByteArrayInputStream(mZipped), mTarget, mBuffer, null, null);
+    }
+
+    @Benchmark
+    public long zipInputStreamSha256() throws IOException {
+        return BundleInflater.inflate(
+                new ByteArrayInputStream(mZipped), mTarget, mBuffer, null, BundleDigest.create());
+    }
+
+    @Benchmark
+    public long gzip() throws IOException {
+        return BundleDecoders.getDecoder(BundleDecoders.FORMAT_GZIP)
+                .decode(new ByteArrayInputStream(mGzipped), mTarget, null, null);
+    }
+
+    @Benchmark
+    public long zipFile() throws IOException {
+        ZipFile zipFile = new ZipFile(mZipFile);
+        try {
+            ZipEntry entry = zipFile.entries().nextElement();
+            InputStream entryStream = zipFile.getInputStream(entry);
+            try {
+                return copy(entryStream, mTarget, mBuffer);
+            } finally {
+                entryStream.close();
+            }
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    @Benchmark
+    public long inflater() throws IOException, DataFormatException {
+        // Deflated data of the first entry follows its local file header
+        int nameLength = readUnsignedShort(mZipped, 26);
+        int extraLength = readUnsignedShort(mZipped, 28);
+        int dataOffset = LOCAL_FILE_HEADER_SIZE + nameLength + extraLength;
+        Inflater inflater = new Inflater(true);
+        FileOutputStream fout = new FileOutputStream(mTarget);
+        try {
+            inflater.setInput(mZipped, dataOffset, mZipped.length - dataOffset);
+            FileChannel channel = fout.getChannel();
+            long total = 0;
+            while (!inflater.finished()) {
+                int numBytesInflated = inflater.inflate(mBuffer);
+                if (numBytesInflated == 0
+                        && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated deflate stream");
+                }
+                write(channel, mBuffer, numBytesInflated);
+                total += numBytesInflated;
+            }
+            channel.force(true);
+            return total;
+        } finally {
+            fout.close();
+            inflater.end();
+        }
+    }
+
+    private static long copy(InputStream source, File target, byte[] buffer) throws IOException {
+        FileOutputStream fout = new FileOutputStream(target);
+        try {
+            FileChannel channel = fout.getChannel();
+            long total = 0;
+            int numBytesRead;
+            while ((numBytesRead = source.read(buffer)) != -1) {
+                write(channel, buffer, numBytesRead);
+                total += numBytesRead;
+            }
+            channel.force(true);
+            return total;
+        } finally {
+            fout.close();
+        }
+    }
+
+    private static void write(FileChannel channel, byte[] buffer, int length) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, length);
+        while (byteBuffer.hasRemaining()) {
+            channel.write(byteBuffer);
+        }
+    }
+
+    private static int readUnsignedShort(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+    }
+
+    /** Generates minified-like JS content, compressing in the same range as real bundles */
+    static byte[] generateBundle(int size) {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder(size + 256);
+        int moduleId = 0;
+        while (sb.length() < size) {
+            sb.append("__d(function(g,r,i,a,m,e,d){var n=r(d[0]),t=r(d[")
+                    .append(random.nextInt(8))
+                    .append("]);e.default=function(")
+                    .append((char) ('a' + random.nextInt(26)))
+                    .append("){return n.createElement(t.View,{style:s.c")
+                    .append(Integer.toHexString(random.nextInt()))
+                    .append(",testID:\"")
+                    .append(Long.toString(random.nextLong(), 36))
+                    .append("\"})}},")
+                    .append(moduleId++)
+                    .append(",[")
+                    .append(random.nextInt(moduleId))
+                    .append(",")
+                    .append(random.nextInt(moduleId))
+                    .append("]);\n");
+        }
+        sb.setLength(size);
+        return sb.toString().getBytes(UTF_8);
+    }
+
+    static byte[] zip(byte[] bundle) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(bundle.length / 3);
+        ZipOutputStream zout = new ZipOutputStream(bout);
+        zout.putNextEntry(new ZipEntry("index.android.bundle"));
+        zout.write(bundle);
+        zout.closeEntry();
+        zout.close();
+        return bout.toByteArray();
+    }
+
+    private static byte[] gzip(byte[] bundle) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(bundle.length / 3);
+        GZIPOutputStream gzout = new GZIPOutputStream(bout);
+        gzout.write(bundle);
+        gzout.close();
+        return bout.toByteArray();
+    }
+}
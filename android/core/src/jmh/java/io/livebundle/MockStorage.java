@@ -0,0 +1,206 @@
+package io.livebundle;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+
+/**
+ * Local stand-in for a LiveBundle storage, serving packages/[packageId]/metadata.json and
+ * packages/[packageId]/[bundleId] (zipped bundles) with a configurable response latency,
+ * bandwidth and failure rate.
+ *
+ * <p>Like the storages LiveBundle is used with (S3, Azure Blob Storage, nginx...), it answers
+ * HEAD requests, and single byte range requests (Range: bytes=[start]-[end]) with a 206 partial
+ * response, unless the If-Range validator does not match the ETag of the file, in which case
+ * the whole file is sent. This is what resumed (ResumableDownload) and segmented
+ * (SegmentedDownload) downloads rely on. The bandwidth limit applies to each response, as a
+ * per connection limit.
+ *
+ * <p>Failed responses are either a 503 or a connection dropped in the middle of the response
+ * body, half of the time each, as seen with flaky storages.
+ */
+final class MockStorage {
+    private static final int HTTP_PARTIAL_CONTENT = 206;
+    private static final int HTTP_NOT_FOUND = 404;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final int HTTP_UNAVAILABLE = 503;
+    // Period of body throttling, small enough to get a steady transfer rate
+    private static final long THROTTLE_PERIOD_MS = 100;
+
+    private final MockWebServer mServer = new MockWebServer();
+    // Served files, keyed by path
+    private final Map<String, byte[]> mFiles = new ConcurrentHashMap<>();
+    // ETags of served files, keyed by path
+    private final Map<String, String> mETags = new ConcurrentHashMap<>();
+    // Bundles of each package, keyed by package id
+    private final Map<String, JSONArray> mBundles = new ConcurrentHashMap<>();
+    private final Random mRandom = new Random(42);
+    private final long mLatencyMs;
+    private final long mBandwidthBytesPerSecond;
+    private final double mFailureRate;
+
+    /**
+     * @param latencyMs               Delay before sending response headers, in ms
+     * @param bandwidthBytesPerSecond Maximum transfer rate of response bodies, or 0 for no limit
+     * @param failureRate             Fraction of responses that fail, between 0 and 1
+     */
+    MockStorage(long latencyMs, long bandwidthBytesPerSecond, double failureRate) {
+        mLatencyMs = latencyMs;
+        mBandwidthBytesPerSecond = bandwidthBytesPerSecond;
+        mFailureRate = failureRate;
+        mServer.setDispatcher(
+                new Dispatcher() {
+                    @Override
+                    public MockResponse dispatch(RecordedRequest request) {
+                        return respond(request);
+                    }
+                });
+    }
+
+    void start() throws IOException {
+        mServer.start();
+    }
+
+    void shutdown() throws IOException {
+        mServer.shutdown();
+    }
+
+    /** Returns the storage url, to be used as LiveBundle storageUrl */
+    String getUrl() {
+        return mServer.url("/").toString().replaceAll("/$", "");
+    }
+
+    /**
+     * Publishes a zipped bundle, and adds it to the metadata of its package
+     *
+     * @param packageId The id of the package containing the bundle
+     * @param bundleId  The id of the bundle
+     * @param zipped    Zipped bundle
+     * @param digest    SHA-256 digest of the bundle, as a hex string
+     */
+    synchronized void putBundle(String packageId, String bundleId, byte[] zipped, String digest)
+            throws JSONException {
+        putFile(String.format("/packages/%s/%s", packageId, bundleId), zipped);
+        JSONArray bundles = mBundles.get(packageId);
+        if (bundles == null) {
+            bundles = new JSONArray();
+            mBundles.put(packageId, bundles);
+        }
+        bundles.put(
+                new JSONObject().put("id", bundleId).put("sha256", digest).put("format", "zip"));
+        String metadata = new JSONObject().put("id", packageId).put("bundles", bundles).toString();
+        putFile(
+                String.format("/packages/%s/metadata.json", packageId),
+                metadata.getBytes(BundleInflateBenchmark.UTF_8));
+    }
+
+    private void putFile(String path, byte[] content) {
+        mFiles.put(path, content);
+        mETags.put(path, String.format("\"%08x-%d\"", Arrays.hashCode(content), content.length));
+    }
+
+    private MockResponse respond(RecordedRequest request) {
+        MockResponse response = new MockResponse();
+        if (mLatencyMs > 0) {
+            response.setHeadersDelay(mLatencyMs, TimeUnit.MILLISECONDS);
+        }
+        String path = request.getPath();
+        byte[] file = mFiles.get(path);
+        if (file == null) {
+            return response.setResponseCode(HTTP_NOT_FOUND);
+        }
+        boolean fail;
+        boolean dropConnection;
+        synchronized (mRandom) {
+            fail = mRandom.nextDouble() < mFailureRate;
+            dropConnection = mRandom.nextBoolean();
+        }
+        boolean head = "HEAD".equals(request.getMethod());
+        if (fail && (!dropConnection || head)) {
+            return response.setResponseCode(HTTP_UNAVAILABLE);
+        }
+        String etag = mETags.get(path);
+        response.setHeader("Accept-Ranges", "bytes").setHeader("ETag", etag);
+        if (head) {
+            // Headers of the whole file, without body
+            return response.setHeader("Content-Length", file.length);
+        }
+        long[] range = getRange(request, etag, file.length);
+        if (range == null) {
+            response.setBody(new Buffer().write(file));
+        } else if (range[0] < 0) {
+            return response.setResponseCode(HTTP_RANGE_NOT_SATISFIABLE)
+                    .setHeader("Content-Range", "bytes */" + file.length);
+        } else {
+            int start = (int) range[0];
+            int end = (int) range[1];
+            response.setResponseCode(HTTP_PARTIAL_CONTENT)
+                    .setHeader(
+                            "Content-Range",
+                            String.format("bytes %d-%d/%d", start, end, file.length))
+                    .setBody(new Buffer().write(file, start, end - start + 1));
+        }
+        if (fail) {
+            response.setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+        }
+        if (mBandwidthBytesPerSecond > 0) {
+            response.throttleBody(
+                    Math.max(1, mBandwidthBytesPerSecond * THROTTLE_PERIOD_MS / 1000),
+                    THROTTLE_PERIOD_MS,
+                    TimeUnit.MILLISECONDS);
+        }
+        return response;
+    }
+
+    /**
+     * Returns the byte range requested (first and last byte positions), null to send the whole
+     * file (no range requested, or If-Range validator not matching), or {-1, -1} if the range
+     * cannot be satisfied
+     */
+    private static long[] getRange(RecordedRequest request, String etag, long length) {
+        String range = request.getHeader("Range");
+        if (range == null || !range.startsWith("bytes=") || range.contains(",")) {
+            return null;
+        }
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange != null && !ifRange.equals(etag)) {
+            return null;
+        }
+        int dashIndex = range.indexOf('-');
+        try {
+            String first = range.substring("bytes=".length(), dashIndex).trim();
+            String last = range.substring(dashIndex + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // Suffix range : last bytes of the file
+                start = Math.max(0, length - Long.parseLong(last));
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            }
+            if (start >= length || start > end) {
+                return new long[] {-1, -1};
+            }
+            return new long[] {start, end};
+        } catch (RuntimeException e) {
+            // Invalid ranges are ignored
+            return null;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package io.livebundle;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to list one page (100 packages, the maximum page size of the catalog) of the package
+ * catalog, for the following queries :
+ *
+ * <ul>
+ *   <li>firstPage : no filter, first page
+ *   <li>lastPage : no filter, from a cursor pointing at the last page
+ *   <li>branchAndPlatform : branch and platform filters, scanning the smallest matching list
+ *   <li>textNoMatch : text matching no package, scanning the whole catalog
+ * </ul>
+ *
+ * <p>The catalog claims to list a page well under a frame (16 ms) with thousands of packages.
+ * Run with ./gradlew :core:jmh -PjmhInclude=PackageIndex (from android directory).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PackageIndexBenchmark {
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"1000", "5000", "10000"})
+    public int numPackages;
+
+    private PackageIndex mIndex;
+    private String mLastPageCursor;
+    private PackageIndex.Query mAll;
+    private PackageIndex.Query mBranchAndPlatform;
+    private PackageIndex.Query mTextNoMatch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mIndex = new PackageIndex(numPackages);
+        // Packages of a busy project : many branches and pull requests
+        for (int i = 0; i < numPackages; i++) {
+            String id = "package-" + i;
+            String branch = "branch-" + i % 50;
+            String pr = i % 3 == 0 ? null : Integer.toString(i % 400);
+            String searchText = id + "\n" + branch + (pr == null ? "" : "\n" + pr);
+            mIndex.put(
+                    new PackageIndex.Entry(
+                            id,
+                            1600000000000L + i * 60000L,
+                            branch,
+                            pr,
+                            i % 4 == 0 ? Arrays.asList("ios") : Arrays.asList("android", "ios"),
+                            "{\"id\":\"" + id + "\"}",
+                            searchText.toLowerCase(Locale.ROOT)));
+        }
+        mAll = new PackageIndex.Query(null, null, null, null);
+        mBranchAndPlatform = new PackageIndex.Query("branch-7", null, "ios", null);
+        mTextNoMatch = new PackageIndex.Query(null, null, null, "no such package");
+        PackageIndex.Entry cursorEntry = mIndex.getEntries().get(numPackages - PAGE_SIZE - 1);
+        mLastPageCursor = cursorEntry.timestamp + ":" + cursorEntry.id;
+    }
+
+    @Benchmark
+    public PackageIndex.Page firstPage() {
+        return mIndex.query(mAll, null, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public PackageIndex.Page lastPage() {
+        return mIndex.query(mAll, mLastPageCursor, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public PackageIndex.Page branchAndPlatform() {
+        return mIndex.query(mBranchAndPlatform, null, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public PackageIndex.Page textNoMatch() {
+        return mIndex.query(mTextNoMatch, null, PAGE_SIZE);
+    }
+}
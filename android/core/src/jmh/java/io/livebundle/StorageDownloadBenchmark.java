@@ -0,0 +1,356 @@
+package io.livebundle;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * End to end latency and throughput of downloading a bundle from a storage, against a local
+ * stand-in storage server ({@link MockStorage}) with configurable latency, bandwidth and failure
+ * rate, so that it runs without network access.
+ *
+ * <p>Each operation goes through the same path as LiveBundle.downloadBundle, using the same
+ * download classes : fetch of the package metadata.json, then download of the zipped bundle,
+ * either
+ *
+ * <ul>
+ *   <li>single : over a single connection, inflated while being streamed to a temporary file,
+ *       keeping the downloaded bytes so that a failed attempt is resumed with a range request
+ *       ({@link ResumableDownload})
+ *   <li>segmented : over parallel connections, each one downloading a byte range of the bundle
+ *       ({@link SegmentedDownload}, the size of the bundle coming from a HEAD request), inflated
+ *       once downloaded. Falls back to a single connection download if the bundle is too small
+ *       to be segmented, or if a segment fails, as LiveBundle does.
+ * </ul>
+ *
+ * <p>The bundle is then verified against the published digest, and its file committed, at which
+ * point it is ready to be installed. Failed attempts are retried as decided by {@link
+ * DownloadRetryPolicy} (without the backoff delay, which would dominate latencies).
+ *
+ * <p>Latency percentiles are reported by the sample time mode, and download throughput by the
+ * throughput mode (bytes secondary result, in inflated bundle bytes per ms). The number of
+ * retries, of resumed attempts and of failed downloads are reported as well. Run with ./gradlew
+ * :core:jmh -PjmhInclude=StorageDownload (from android directory).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.SampleTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StorageDownloadBenchmark {
+    private static final String PACKAGE_ID = "6f1a8c4e-2b7d-4e19-9c35-0d8e7a6b5f21";
+    private static final String BUNDLE_ID = "b3e5d7f9-1a2c-4b6d-8e0f-2a4c6e8b0d13";
+    // Same as LiveBundle
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int SEGMENTS_BUFFER_SIZE = 64 * 1024;
+    // Progress is not reported
+    private static final DownloadTracker NO_TRACKER =
+            new DownloadTracker() {
+                @Override
+                public InputStream track(InputStream source, long bytesTotal) {
+                    return source;
+                }
+            };
+
+    @Param({"single", "segmented"})
+    public String strategy;
+
+    // Zipped bundles of 30 MB are the smallest downloaded in segments (at least 2 segments)
+    @Param({"1", "15", "30"})
+    public int bundleSizeMb;
+
+    @Param({"0", "100"})
+    public int latencyMs;
+
+    /** Storage bandwidth, 0 for no limit */
+    @Param({"0", "4096"})
+    public int bandwidthKbps;
+
+    @Param({"0", "0.2"})
+    public double failureRate;
+
+    private MockStorage mStorage;
+    private OkHttpClient mHttpClient;
+
+    /** Bundle files of a benchmark thread */
+    @State(Scope.Thread)
+    public static class Target {
+        File mTempFile;
+        File mBundleFile;
+        // Partial files of resumable downloads
+        File mPartsDir;
+        File mSegmentsFile;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            mTempFile = File.createTempFile("LB-Bundle", ".js.tmp");
+            mBundleFile = File.createTempFile("LB-Bundle", ".js");
+            mSegmentsFile = File.createTempFile("LB-Bundle", ".zip.segments");
+            mPartsDir = new File(mBundleFile.getPath() + ".parts");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            mTempFile.delete();
+            mBundleFile.delete();
+            mSegmentsFile.delete();
+            new ResumableDownload(mPartsDir, BUNDLE_ID).discard();
+            mPartsDir.delete();
+        }
+    }
+
+    /** Inflated bundle bytes, reported as a rate in throughput mode */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    /**
+     * Download retries, retries resumed from the bytes already downloaded, segmented downloads
+     * falling back to a single connection, and failed downloads (all attempts failed)
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Failures {
+        public long retries;
+        public long resumes;
+        public long fallbacks;
+        public long failedDownloads;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            retries = 0;
+            resumes = 0;
+            fallbacks = 0;
+            failedDownloads = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, JSONException {
+        byte[] bundle = BundleInflateBenchmark.generateBundle(bundleSizeMb * 1024 * 1024);
+        MessageDigest digest = BundleDigest.create();
+        digest.update(bundle);
+        mStorage = new MockStorage(latencyMs, bandwidthKbps * 1024L, failureRate);
+        mStorage.putBundle(
+                PACKAGE_ID,
+                BUNDLE_ID,
+                BundleInflateBenchmark.zip(bundle),
+                BundleDigest.toHex(digest.digest()));
+        mStorage.start();
+        mHttpClient =
+                new OkHttpClient.Builder()
+                        .connectTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                        .readTimeout(0, TimeUnit.MILLISECONDS)
+                        .writeTimeout(0, TimeUnit.MILLISECONDS)
+                        .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mStorage.shutdown();
+    }
+
+    @Benchmark
+    public boolean downloadBundle(Target target, Throughput throughput, Failures failures) {
+        // Bundles are still downloaded if metadata cannot be fetched, without verification
+        String digest = getDigest();
+        Request request = newRequest("/" + BUNDLE_ID);
+        if ("segmented".equals(strategy)) {
+            try {
+                long size = getSize(request);
+                if (SegmentedDownload.getSegmentCount(size) >= 2) {
+                    throughput.bytes += downloadSegmented(target, request, size, digest);
+                    return true;
+                }
+            } catch (IOException e) {
+                if (e instanceof BundleDigest.MismatchException) {
+                    failures.failedDownloads++;
+                    return false;
+                }
+                failures.fallbacks++;
+            }
+        }
+        ResumableDownload resumableDownload = new ResumableDownload(target.mPartsDir, BUNDLE_ID);
+        for (int attempt = 1; ; attempt++) {
+            Call call =
+                    mHttpClient.newCall(resumableDownload.prepare(request.newBuilder()).build());
+            Response response = null;
+            try {
+                response = call.execute();
+                throughput.bytes += download(target, resumableDownload, response, digest);
+                resumableDownload.discard();
+                if (resumableDownload.getResumedBytes() > 0) {
+                    failures.resumes++;
+                }
+                return true;
+            } catch (IOException e) {
+                if (!DownloadRetryPolicy.shouldRetry(attempt, call, response, e)) {
+                    resumableDownload.discard();
+                    failures.failedDownloads++;
+                    return false;
+                }
+                failures.retries++;
+            } finally {
+                if (response != null) {
+                    response.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Downloads the bundle over a single connection, returning the number of inflated bytes
+     *
+     * @param digest Published digest of the bundle, or null to skip verification
+     */
+    private long download(
+            Target target, ResumableDownload resumableDownload, Response response, String digest)
+            throws IOException {
+        resumableDownload.checkResponse(response);
+        ResponseBody body = response.body();
+        InputStream source =
+                resumableDownload.open(
+                        response, NO_TRACKER.track(body.byteStream(), body.contentLength()));
+        try {
+            return decode(source, target, digest);
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Downloads the bundle over parallel connections, returning the number of inflated bytes
+     *
+     * @param size   Size of the zipped bundle
+     * @param digest Published digest of the bundle, or null to skip verification
+     */
+    private long downloadSegmented(Target target, Request request, long size, String digest)
+            throws IOException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final IOException[] failure = new IOException[1];
+        SegmentedDownload segmentedDownload =
+                new SegmentedDownload(mHttpClient, request, size, target.mSegmentsFile, NO_TRACKER);
+        segmentedDownload.start(
+                new SegmentedDownload.Listener() {
+                    @Override
+                    public void onComplete() {
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onFailure(IOException e) {
+                        failure[0] = e;
+                        done.countDown();
+                    }
+                });
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            for (Call call : segmentedDownload.getCalls()) {
+                call.cancel();
+            }
+            throw new InterruptedIOException();
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        InputStream source =
+                new BufferedInputStream(
+                        new FileInputStream(target.mSegmentsFile), SEGMENTS_BUFFER_SIZE);
+        try {
+            return decode(source, target, digest);
+        } finally {
+            source.close();
+        }
+    }
+
+    /** Decodes the zipped bundle to its file, verifies and commits it */
+    private static long decode(InputStream source, Target target, String digest)
+            throws IOException {
+        MessageDigest messageDigest = digest == null ? null : BundleDigest.create();
+        long total =
+                BundleDecoders.getDecoder(BundleDecoders.FORMAT_ZIP)
+                        .decode(source, target.mTempFile, null, messageDigest);
+        if (digest != null) {
+            BundleDigest.verify(messageDigest, digest);
+        }
+        BundleFiles.swap(target.mTempFile, target.mBundleFile);
+        return total;
+    }
+
+    /** Returns the size of the zipped bundle if it can be downloaded in segments, or -1 */
+    private long getSize(Request request) throws IOException {
+        Response response =
+                mHttpClient.newCall(SegmentedDownload.newSizeRequest(request)).execute();
+        try {
+            return SegmentedDownload.getSize(response);
+        } finally {
+            response.close();
+        }
+    }
+
+    /** Fetches the published digest of the bundle from the package metadata, or null */
+    private String getDigest() {
+        Response response;
+        try {
+            response = mHttpClient.newCall(newRequest("/metadata.json")).execute();
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                return null;
+            }
+            JSONArray bundles = new JSONObject(body.string()).getJSONArray("bundles");
+            for (int i = 0; i < bundles.length(); i++) {
+                JSONObject bundle = bundles.getJSONObject(i);
+                if (BUNDLE_ID.equals(bundle.getString("id"))) {
+                    return bundle.optString("sha256", null);
+                }
+            }
+        } catch (IOException | JSONException ignored) {
+        } finally {
+            response.close();
+        }
+        return null;
+    }
+
+    private Request newRequest(String path) {
+        return new Request.Builder()
+                .url(String.format("%s/packages/%s%s", mStorage.getUrl(), PACKAGE_ID, path))
+                .build();
+    }
+}
@@ -0,0 +1,288 @@
+package io.livebundle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Content-addressed store of the assets of all LiveBundle bundles, so that an asset shipped
+ * with many bundles (which is the case of most images and fonts, across the bundles of a
+ * package and across consecutive packages) is only stored once on the device.
+ *
+ * <p>Assets are stored under the hex SHA-256 digest of their content ([rootDir]/[2 first digits]
+ * /[digest]), and materialized in the files directory of each bundle as links to the stored
+ * file (hard links, see {@link FileLinker}). Extracting an asset that is already stored only
+ * costs its digest : it is neither written nor synced to disk again.
+ *
+ * <p>Stored files are never modified once stored. Deleting one never breaks the bundles linking
+ * to it (the content lives as long as one of its links), it only stops the asset from being
+ * deduplicated, so unreferenced assets can be deleted at any time (see {@link #collectGarbage}).
+ * Garbage collection walks the whole store, so it is only run once requested (see {@link
+ * #requestGarbageCollection}), that is once links to stored assets were deleted.
+ */
+final class AssetStore {
+    private static final String TEMP_DIR_NAME = "tmp";
+    private static final String GC_MARKER_FILE_NAME = "gc";
+
+    /** Links files, depending on what the file system supports */
+    interface FileLinker {
+        /**
+         * Checks whether files can be linked at all. If not, stored files are copied into files
+         * directories, so they are never referenced, and the store is of no use.
+         */
+        boolean canLink();
+
+        /**
+         * Links a stored file at a given path, or copies it if it cannot be linked
+         *
+         * @param source Stored file
+         * @param link   Path to link the stored file at, that does not exist
+         * @throws IOException If the file can neither be linked nor copied
+         */
+        void link(File source, File link) throws IOException;
+
+        /**
+         * Returns the number of links of a file, or -1 if unknown. A stored file with a single
+         * link is not referenced by any bundle.
+         */
+        int getLinkCount(File file);
+    }
+
+    private final File mRootDir;
+    private final File mTempDir;
+    // Present if garbage collection was requested, survives process restarts
+    private final File mGcMarkerFile;
+    private final FileLinker mLinker;
+    // Assets are stored concurrently (read lock), garbage collection of each directory of the
+    // store is exclusive (write lock). Fair, so that assets waiting to be stored get in between
+    // two directories.
+    private final ReadWriteLock mLock = new ReentrantReadWriteLock(true);
+
+    /**
+     * @param rootDir Directory of the store, on the same file system as bundle files directories
+     * @param linker  Linker of stored files
+     */
+    AssetStore(File rootDir, FileLinker linker) {
+        mRootDir = rootDir;
+        mTempDir = new File(rootDir, TEMP_DIR_NAME);
+        mGcMarkerFile = new File(rootDir, GC_MARKER_FILE_NAME);
+        mLinker = linker;
+    }
+
+    /**
+     * Checks whether stored assets can be linked into files directories, that is whether storing
+     * assets in this store deduplicates them
+     */
+    boolean canLink() {
+        return mLinker.canLink();
+    }
+
+    /**
+     * Stores an asset held in memory, unless already stored, and links it at a target path
+     *
+     * @param content Content of the asset
+     * @param target  Path of the asset in the files directory of a bundle
+     * @throws IOException If the asset cannot be stored or linked
+     */
+    void put(ByteArrayOutputStream content, File target) throws IOException {
+        mLock.readLock().lock();
+        try {
+            putLocked(content, target);
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    private void putLocked(ByteArrayOutputStream content, File target) throws IOException {
+        MessageDigest digest = BundleDigest.create();
+        content.writeTo(
+                new DigestOutputStream(
+                        new OutputStream() {
+                            @Override
+                            public void write(int b) {}
+
+                            @Override
+                            public void write(byte[] b, int off, int len) {}
+                        },
+                        digest));
+        File stored = getStoredFile(BundleDigest.toHex(digest.digest()));
+        if (!stored.isFile()) {
+            File temp = createTempFile();
+            try {
+                FileOutputStream fout = new FileOutputStream(temp);
+                try {
+                    content.writeTo(fout);
+                    fout.getFD().sync();
+                } finally {
+                    fout.close();
+                }
+                commit(temp, stored);
+            } finally {
+                temp.delete();
+            }
+        }
+        link(stored, target);
+    }
+
+    /**
+     * Stores an asset read from a stream, unless already stored, and links it at a target path.
+     * The asset is written to the store while being read, as it is too large to be held in
+     * memory, and dropped if it turns out to be stored already.
+     *
+     * @param head   First bytes of the asset, already read from the stream
+     * @param source Stream of the rest of the asset. Not closed by this method.
+     * @param buffer I/O buffer
+     * @param target Path of the asset in the files directory of a bundle
+     * @throws IOException If the asset cannot be read, stored or linked
+     */
+    void put(ByteArrayOutputStream head, InputStream source, byte[] buffer, File target)
+            throws IOException {
+        mLock.readLock().lock();
+        try {
+            putLocked(head, source, buffer, target);
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    private void putLocked(
+            ByteArrayOutputStream head, InputStream source, byte[] buffer, File target)
+            throws IOException {
+        MessageDigest digest = BundleDigest.create();
+        File temp = createTempFile();
+        try {
+            FileOutputStream fout = new FileOutputStream(temp);
+            try {
+                OutputStream out = new DigestOutputStream(fout, digest);
+                head.writeTo(out);
+                int numBytesRead;
+                while ((numBytesRead = source.read(buffer)) != -1) {
+                    out.write(buffer, 0, numBytesRead);
+                }
+                fout.getFD().sync();
+            } finally {
+                fout.close();
+            }
+            File stored = getStoredFile(BundleDigest.toHex(digest.digest()));
+            if (!stored.isFile()) {
+                commit(temp, stored);
+            }
+            link(stored, target);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Requests the next {@link #collectGarbageIfRequested} call to collect garbage, as links to
+     * stored assets were deleted (bundle files directories removed or replaced)
+     */
+    void requestGarbageCollection() {
+        try {
+            mkdirs(mRootDir);
+            mGcMarkerFile.createNewFile();
+        } catch (IOException ignored) {
+            // Unreferenced assets are kept until the next request
+        }
+    }
+
+    /**
+     * Collects garbage (see {@link #collectGarbage}) if it was requested since the last
+     * collection, or if there are temporary files of interrupted extractions
+     *
+     * @return Whether garbage was collected
+     */
+    boolean collectGarbageIfRequested() {
+        String[] tempFiles = mTempDir.list();
+        if (!mGcMarkerFile.isFile() && (tempFiles == null || tempFiles.length == 0)) {
+            return false;
+        }
+        collectGarbage();
+        return true;
+    }
+
+    /**
+     * Deletes the stored assets that are not linked by any bundle anymore, as well as temporary
+     * files of interrupted extractions. The store is collected one directory at a time, assets
+     * can still be stored in other directories meanwhile. Assets whose number of links is unknown
+     * are kept, and nothing is collected if files cannot be linked, as link counts are unknown
+     * then.
+     */
+    void collectGarbage() {
+        if (!mLinker.canLink()) {
+            return;
+        }
+        // Removals requested from now on need another collection
+        mGcMarkerFile.delete();
+        mLock.writeLock().lock();
+        try {
+            BundleFiles.deleteRecursive(mTempDir);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+        File[] dirs = mRootDir.listFiles();
+        if (dirs == null) {
+            return;
+        }
+        for (File dir : dirs) {
+            if (!dir.isDirectory() || dir.equals(mTempDir)) {
+                continue;
+            }
+            mLock.writeLock().lock();
+            try {
+                collectGarbage(dir);
+            } finally {
+                mLock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void collectGarbage(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            // Only linked by the store itself
+            if (mLinker.getLinkCount(file) == 1) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private File getStoredFile(String hexDigest) {
+        return new File(new File(mRootDir, hexDigest.substring(0, 2)), hexDigest);
+    }
+
+    private File createTempFile() throws IOException {
+        mkdirs(mTempDir);
+        return File.createTempFile("asset", null, mTempDir);
+    }
+
+    /** Moves a complete asset file to its stored location */
+    private static void commit(File temp, File stored) throws IOException {
+        mkdirs(stored.getParentFile());
+        // Renaming over a file stored concurrently is fine, both have the same content
+        BundleFiles.swap(temp, stored);
+    }
+
+    private void link(File stored, File target) throws IOException {
+        // Archives can contain the same entry twice, the last one wins
+        target.delete();
+        mLinker.link(stored, target);
+    }
+
+    private static void mkdirs(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Failed to create directory " + dir);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package io.livebundle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * Decoder of a bundle format, writing a downloaded bundle to its bundle store file. Decoders of
+ * other formats, or faster (native) decoders of the built-in formats, can be registered through
+ * LiveBundle.registerBundleDecoder.
+ */
+public interface BundleDecoder {
+    /**
+     * Decodes a bundle
+     *
+     * @param source   Encoded bundle stream. Should not be closed by the decoder.
+     * @param target   File to write the decoded bundle to. Should be synced to disk before
+     *                 returning.
+     * @param filesDir Directory to write the other files of the bundle to (assets), for formats
+     *                 that can hold several files, or null to skip them
+     * @param digest   Digest to update with the decoded bundle bytes, or null
+     * @return The number of bytes written to target file
+     * @throws IOException If the bundle cannot be decoded or written
+     */
+    long decode(InputStream source, File target, File filesDir, MessageDigest digest)
+            throws IOException;
+}
@@ -0,0 +1,146 @@
+package io.livebundle;
+
+import org.brotli.dec.BrotliInputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Registry of the decoders of the formats bundles can be published in, keyed by format name.
+ *
+ * <p>Built-in formats are :
+ *
+ * <ul>
+ *   <li>zip : zip archive containing the bundle as first entry, possibly followed by assets
+ *       (default format, stored without file extension for compatibility with previous versions
+ *       of LiveBundle)
+ *   <li>gzip : gzip compressed bundle (.gz file extension)
+ *   <li>br : Brotli compressed bundle (.br file extension), smaller than deflate. Decoded by the
+ *       pure Java reference decoder, unless a native decoder is registered for this format.
+ * </ul>
+ */
+final class BundleDecoders {
+    static final String FORMAT_ZIP = "zip";
+    static final String FORMAT_GZIP = "gzip";
+    static final String FORMAT_BROTLI = "br";
+
+    private static final Map<String, Format> sFormats = new ConcurrentHashMap<>();
+
+    static {
+        register(
+                FORMAT_ZIP,
+                "",
+                new BundleDecoder() {
+                    @Override
+                    public long decode(
+                            InputStream source, File target, File filesDir, MessageDigest digest)
+                            throws IOException {
+                        return BundleInflater.inflate(source, target, filesDir, digest);
+                    }
+                });
+        register(
+                FORMAT_GZIP,
+                ".gz",
+                new BundleDecoder() {
+                    @Override
+                    public long decode(
+                            InputStream source, File target, File filesDir, MessageDigest digest)
+                            throws IOException {
+                        byte[] buffer = BundleInflater.obtainBuffer();
+                        return BundleFiles.write(
+                                new GZIPInputStream(source, buffer.length / 4),
+                                target,
+                                buffer,
+                                digest);
+                    }
+                });
+        register(
+                FORMAT_BROTLI,
+                ".br",
+                new BundleDecoder() {
+                    @Override
+                    public long decode(
+                            InputStream source, File target, File filesDir, MessageDigest digest)
+                            throws IOException {
+                        byte[] buffer = BundleInflater.obtainBuffer();
+                        return BundleFiles.write(
+                                new BrotliInputStream(source, buffer.length / 4),
+                                target,
+                                buffer,
+                                digest);
+                    }
+                });
+    }
+
+    private BundleDecoders() {}
+
+    /**
+     * Registers the decoder of a format, replacing the current one if any
+     *
+     * @param format        Format name, as found in package metadata or Content-Encoding header
+     * @param fileExtension File extension of the bundles of this format in the storage
+     * @param decoder       Decoder
+     */
+    static void register(String format, String fileExtension, BundleDecoder decoder) {
+        sFormats.put(format, new Format(fileExtension, decoder));
+    }
+
+    /** Checks whether a decoder is registered for a format */
+    static boolean isSupported(String format) {
+        return sFormats.containsKey(format);
+    }
+
+    /**
+     * Returns the file extension of the bundles of a format in the storage
+     *
+     * @throws IllegalArgumentException If the format is not supported
+     */
+    static String getFileExtension(String format) {
+        return getFormat(format).mFileExtension;
+    }
+
+    /**
+     * Returns the decoder of a format
+     *
+     * @throws IllegalArgumentException If the format is not supported
+     */
+    static BundleDecoder getDecoder(String format) {
+        return getFormat(format).mDecoder;
+    }
+
+    /**
+     * Returns the format of a bundle response given its Content-Encoding header, or null if the
+     * response is not encoded (or with an unsupported encoding)
+     */
+    static String fromContentEncoding(String contentEncoding) {
+        if (contentEncoding == null) {
+            return null;
+        }
+        String format = contentEncoding.trim().toLowerCase(Locale.US);
+        return !format.equals(FORMAT_ZIP) && isSupported(format) ? format : null;
+    }
+
+    private static Format getFormat(String format) {
+        Format registered = sFormats.get(format);
+        if (registered == null) {
+            throw new IllegalArgumentException("Unsupported bundle format " + format);
+        }
+        return registered;
+    }
+
+    private static final class Format {
+        private final String mFileExtension;
+        private final BundleDecoder mDecoder;
+
+        Format(String fileExtension, BundleDecoder decoder) {
+            mFileExtension = fileExtension;
+            mDecoder = decoder;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package io.livebundle;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 digests of bundle files, used to verify the integrity of bundles against the digests
+ * published in package metadata.
+ *
+ * <p>Digests are computed while bundles are being written (see {@link BundleInflater} and {@link
+ * BundlePatcher}), rather than through another read of the written file.
+ */
+final class BundleDigest {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** Thrown when a bundle does not match its published digest */
+    static final class MismatchException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        MismatchException(String expected, String actual) {
+            super("Bundle digest mismatch : expected " + expected + ", got " + actual);
+        }
+    }
+
+    private BundleDigest() {}
+
+    /** Creates a new SHA-256 message digest */
+    static MessageDigest create() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform (and Android) is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Checks that the bytes fed to a message digest match an expected digest
+     *
+     * @param digest   Message digest, reset by this method
+     * @param expected Expected digest, as a hex string (case insensitive)
+     * @return The digest, as a lowercase hex string
+     * @throws MismatchException If the digest does not match the expected one
+     */
+    static String verify(MessageDigest digest, String expected) throws MismatchException {
+        String actual = toHex(digest.digest());
+        if (!actual.equalsIgnoreCase(expected)) {
+            throw new MismatchException(expected, actual);
+        }
+        return actual;
+    }
+
+    /**
+     * Computes the digest of a file
+     *
+     * @param file File to digest
+     * @return The digest, as a lowercase hex string
+     * @throws IOException
+     */
+    static String digest(File file) throws IOException {
+        MessageDigest digest = create();
+        byte[] buffer = BundleInflater.obtainBuffer();
+        FileInputStream fin = new FileInputStream(file);
+        try {
+            int numBytesRead;
+            while ((numBytesRead = fin.read(buffer)) != -1) {
+                digest.update(buffer, 0, numBytesRead);
+            }
+        } finally {
+            fin.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    /** Formats a digest as a lowercase hex string */
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,94 @@
+package io.livebundle;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/** File operations on bundle files, independent from Android */
+final class BundleFiles {
+    private BundleFiles() {}
+
+    /**
+     * Atomically replaces a target file with a temporary file, that must have been synced to disk
+     * beforehand. If the process gets killed during the swap, target file is either the previous
+     * one or the new one, never a partially written one.
+     *
+     * @param temp   Temporary file, in the same directory as target file
+     * @param target Target file
+     * @throws IOException If the temporary file cannot be renamed
+     */
+    static void swap(File temp, File target) throws IOException {
+        if (!temp.renameTo(target)) {
+            throw new IOException("Failed to rename " + temp + " to " + target);
+        }
+    }
+
+    /**
+     * Writes a stream to a target file, and syncs the file to disk
+     *
+     * @param source Stream to write. Not closed by this method.
+     * @param target File to write to
+     * @param buffer I/O buffer
+     * @param digest Digest to update with the written bytes, or null
+     * @return The number of bytes written to target file
+     * @throws IOException
+     */
+    static long write(InputStream source, File target, byte[] buffer, MessageDigest digest)
+            throws IOException {
+        long total = 0;
+        FileOutputStream fout = new FileOutputStream(target);
+        try {
+            FileChannel channel = fout.getChannel();
+            int numBytesRead;
+            while ((numBytesRead = source.read(buffer)) != -1) {
+                if (digest != null) {
+                    digest.update(buffer, 0, numBytesRead);
+                }
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, numBytesRead);
+                while (byteBuffer.hasRemaining()) {
+                    channel.write(byteBuffer);
+                }
+                total += numBytesRead;
+            }
+            // Make sure the bundle is on disk before it gets committed
+            channel.force(true);
+        } finally {
+            fout.close();
+        }
+        return total;
+    }
+
+    /** Reads the whole content of a (small) file */
+    static byte[] readAll(File file) throws IOException {
+        FileInputStream fin = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            int offset = 0;
+            int numBytesRead;
+            while (offset < bytes.length
+                    && (numBytesRead = fin.read(bytes, offset, bytes.length - offset)) != -1) {
+                offset += numBytesRead;
+            }
+            return offset == bytes.length ? bytes : Arrays.copyOf(bytes, offset);
+        } finally {
+            fin.close();
+        }
+    }
+
+    /** Deletes a file, or a directory and all its content */
+    static void deleteRecursive(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,250 @@
+package io.livebundle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Inflates a zipped LiveBundle bundle straight from its source stream (typically the HTTP
+ * response body) to the target bundle file, without going through an intermediate zip file on
+ * disk.
+ *
+ * <p>The first entry of the archive is the bundle. Any other entry (assets, split chunks) is
+ * extracted to a files directory, keeping its path in the archive. Inflating a zip stream is
+ * sequential, but these entries are independent from each other : they are inflated to memory
+ * and handed to a pool of workers (one per core) writing and syncing them to disk in parallel,
+ * which is where most of the extraction time goes for archives of many small files.
+ *
+ * <p>When an asset store is set ({@link #setAssetStore}), entries are extracted through it :
+ * entries already stored (by any bundle) are linked from the store instead of being written.
+ */
+final class BundleInflater {
+    // Bundles are 8-15 MB once inflated, so use a buffer large enough to keep the number of
+    // read/write round trips low. Buffers are reused per thread across downloads.
+    private static final int BUFFER_SIZE = 256 * 1024;
+    // Larger entries are written by the inflating thread, to bound memory use
+    private static final int MAX_PARALLEL_ENTRY_SIZE = 1024 * 1024;
+    // Maximum number of inflated entries waiting to be written
+    private static final int MAX_PENDING_ENTRIES = 16;
+
+    private static final ThreadLocal<byte[]> sBuffer =
+            new ThreadLocal<byte[]>() {
+                @Override
+                protected byte[] initialValue() {
+                    return new byte[BUFFER_SIZE];
+                }
+            };
+
+    private static ThreadPoolExecutor sWriteExecutor;
+    private static volatile AssetStore sAssetStore;
+
+    private BundleInflater() {}
+
+    /**
+     * Sets the store to extract entries through, deduplicating them across bundles
+     *
+     * @param assetStore Asset store, or null to write entries to files directories
+     */
+    static void setAssetStore(AssetStore assetStore) {
+        sAssetStore = assetStore;
+    }
+
+    /** Returns the I/O buffer of the calling thread */
+    static byte[] obtainBuffer() {
+        return sBuffer.get();
+    }
+
+    /**
+     * Inflates the first entry of a zip stream to a target file
+     *
+     * @param zipped Zip stream to inflate. Not closed by this method.
+     * @param target File to write the inflated entry to
+     * @return The number of bytes written to target file
+     * @throws IOException
+     */
+    static long inflate(InputStream zipped, File target) throws IOException {
+        return inflate(zipped, target, obtainBuffer(), null, null);
+    }
+
+    /**
+     * Inflates the first entry of a zip stream to a target file, computing the digest of the
+     * inflated bytes on the way, and extracts the other entries to a files directory
+     *
+     * @param zipped   Zip stream to inflate. Not closed by this method.
+     * @param target   File to write the inflated entry to
+     * @param filesDir Directory to extract the other entries to, or null to skip them
+     * @param digest   Digest to update with the inflated bytes of the first entry, or null
+     * @return The number of bytes written to target file
+     * @throws IOException
+     */
+    static long inflate(InputStream zipped, File target, File filesDir, MessageDigest digest)
+            throws IOException {
+        return inflate(zipped, target, obtainBuffer(), filesDir, digest);
+    }
+
+    /**
+     * Inflates the first entry of a zip stream to a target file, using a given I/O buffer
+     *
+     * @param zipped   Zip stream to inflate. Not closed by this method.
+     * @param target   File to write the inflated entry to
+     * @param buffer   I/O buffer
+     * @param filesDir Directory to extract the other entries to, or null to skip them
+     * @param digest   Digest to update with the inflated bytes of the first entry, or null
+     * @return The number of bytes written to target file
+     * @throws IOException
+     */
+    static long inflate(
+            InputStream zipped, File target, byte[] buffer, File filesDir, MessageDigest digest)
+            throws IOException {
+        ZipInputStream zipStream = new ZipInputStream(zipped);
+        ZipEntry entry = zipStream.getNextEntry();
+        if (entry == null) {
+            throw new IOException("LiveBundle zip archive is empty");
+        }
+
+        long total = BundleFiles.write(zipStream, target, buffer, digest);
+
+        long time = entry.getTime();
+        if (time > 0) {
+            target.setLastModified(time);
+        }
+
+        if (filesDir != null) {
+            extractFiles(zipStream, filesDir, buffer);
+        }
+        return total;
+    }
+
+    /** Extracts the remaining entries of a zip stream to a directory */
+    private static void extractFiles(ZipInputStream zipStream, File filesDir, byte[] buffer)
+            throws IOException {
+        String filesDirPath = filesDir.getCanonicalPath() + File.separator;
+        final AssetStore assetStore = sAssetStore;
+        Deque<Future<Void>> pendingWrites = new ArrayDeque<>();
+        try {
+            ZipEntry entry;
+            while ((entry = zipStream.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                final File file = new File(filesDir, entry.getName());
+                // Reject entries that would be extracted outside of files directory
+                if (!file.getCanonicalPath().startsWith(filesDirPath)) {
+                    throw new IOException("Invalid LiveBundle zip entry " + entry.getName());
+                }
+                File parent = file.getParentFile();
+                if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+                    throw new IOException("Failed to create directory " + parent);
+                }
+
+                final ByteArrayOutputStream content = new ByteArrayOutputStream();
+                int numBytesRead;
+                while (content.size() <= MAX_PARALLEL_ENTRY_SIZE
+                        && (numBytesRead = zipStream.read(buffer)) != -1) {
+                    content.write(buffer, 0, numBytesRead);
+                }
+                if (content.size() > MAX_PARALLEL_ENTRY_SIZE) {
+                    // Large entry : write what was inflated so far, followed by the rest of it
+                    if (assetStore != null) {
+                        assetStore.put(content, zipStream, buffer, file);
+                        continue;
+                    }
+                    FileOutputStream fout = new FileOutputStream(file);
+                    try {
+                        content.writeTo(fout);
+                        while ((numBytesRead = zipStream.read(buffer)) != -1) {
+                            fout.write(buffer, 0, numBytesRead);
+                        }
+                        fout.getFD().sync();
+                    } finally {
+                        fout.close();
+                    }
+                    continue;
+                }
+
+                if (pendingWrites.size() >= MAX_PENDING_ENTRIES) {
+                    await(pendingWrites.poll());
+                }
+                pendingWrites.add(
+                        getWriteExecutor()
+                                .submit(
+                                        new Callable<Void>() {
+                                            @Override
+                                            public Void call() throws IOException {
+                                                if (assetStore != null) {
+                                                    assetStore.put(content, file);
+                                                    return null;
+                                                }
+                                                FileOutputStream fout = new FileOutputStream(file);
+                                                try {
+                                                    content.writeTo(fout);
+                                                    fout.getFD().sync();
+                                                } finally {
+                                                    fout.close();
+                                                }
+                                                return null;
+                                            }
+                                        }));
+            }
+            while (!pendingWrites.isEmpty()) {
+                await(pendingWrites.poll());
+            }
+        } finally {
+            for (Future<Void> pendingWrite : pendingWrites) {
+                pendingWrite.cancel(false);
+            }
+        }
+    }
+
+    private static void await(Future<Void> write) throws IOException {
+        try {
+            write.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException
+                    ? (IOException) cause
+                    : new IOException("Failed to extract LiveBundle zip entry", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting LiveBundle zip entries", e);
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getWriteExecutor() {
+        if (sWriteExecutor == null) {
+            int numThreads = Runtime.getRuntime().availableProcessors();
+            sWriteExecutor =
+                    new ThreadPoolExecutor(
+                            numThreads,
+                            numThreads,
+                            30,
+                            TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(),
+                            new ThreadFactory() {
+                                @Override
+                                public Thread newThread(Runnable runnable) {
+                                    Thread thread = new Thread(runnable, "LiveBundle-extract");
+                                    thread.setDaemon(true);
+                                    return thread;
+                                }
+                            });
+            // Threads only live while bundles are being extracted
+            sWriteExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sWriteExecutor;
+    }
+}
@@ -0,0 +1,154 @@
+package io.livebundle;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Rebuilds a bundle from a base bundle already on the device and a binary patch, while the
+ * patch is being streamed (typically from the HTTP response body).
+ *
+ * <p>Patches are gzip compressed and use the following format (all integers big endian) :
+ *
+ * <pre>
+ * magic   "LBDF" (4 bytes)
+ * version 1 (1 byte)
+ * ops     sequence of operations, terminated by an END operation
+ *   0x00  END
+ *   0x01  COPY   offset (int64) length (int32) : copy length bytes of base bundle at offset
+ *   0x02  ADD    length (int32) data (length bytes) : append data
+ * </pre>
+ */
+final class BundlePatcher {
+    private static final byte[] MAGIC = {'L', 'B', 'D', 'F'};
+    private static final int VERSION = 1;
+    private static final int OP_END = 0x00;
+    private static final int OP_COPY = 0x01;
+    private static final int OP_ADD = 0x02;
+
+    private BundlePatcher() {}
+
+    /**
+     * Applies a patch to a base bundle
+     *
+     * @param patch Gzip compressed patch stream. Not closed by this method.
+     * @param base Base bundle file the patch was generated against
+     * @param target File to write the patched bundle to
+     * @return The number of bytes written to target file
+     * @throws IOException If the patch is malformed or does not apply to the base bundle
+     */
+    static long apply(InputStream patch, File base, File target) throws IOException {
+        return apply(patch, base, target, null);
+    }
+
+    /**
+     * Applies a patch to a base bundle, computing the digest of the patched bundle on the way
+     *
+     * @param patch Gzip compressed patch stream. Not closed by this method.
+     * @param base Base bundle file the patch was generated against
+     * @param target File to write the patched bundle to
+     * @param digest Digest to update with the patched bundle bytes, or null
+     * @return The number of bytes written to target file
+     * @throws IOException If the patch is malformed or does not apply to the base bundle
+     */
+    static long apply(InputStream patch, File base, File target, MessageDigest digest)
+            throws IOException {
+        DataInputStream patchStream = new DataInputStream(new GZIPInputStream(patch));
+        for (byte b : MAGIC) {
+            if (patchStream.readByte() != b) {
+                throw new IOException("Not a LiveBundle patch");
+            }
+        }
+        int version = patchStream.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported LiveBundle patch version " + version);
+        }
+
+        byte[] buffer = BundleInflater.obtainBuffer();
+        long total = 0;
+        RandomAccessFile baseFile = new RandomAccessFile(base, "r");
+        FileOutputStream fout = new FileOutputStream(target);
+        try {
+            FileChannel baseChannel = baseFile.getChannel();
+            FileChannel targetChannel = fout.getChannel();
+            long baseSize = baseChannel.size();
+            while (true) {
+                int op = patchStream.readUnsignedByte();
+                if (op == OP_END) {
+                    break;
+                } else if (op == OP_COPY) {
+                    long offset = patchStream.readLong();
+                    int length = patchStream.readInt();
+                    if (offset < 0 || length < 0 || offset + length > baseSize) {
+                        throw new IOException("LiveBundle patch does not match base bundle");
+                    }
+                    long copied = 0;
+                    if (digest == null) {
+                        while (copied < length) {
+                            copied +=
+                                    baseChannel.transferTo(
+                                            offset + copied, length - copied, targetChannel);
+                        }
+                    } else {
+                        // Copied bytes have to go through the digest, so no transferTo
+                        while (copied < length) {
+                            ByteBuffer byteBuffer =
+                                    ByteBuffer.wrap(
+                                            buffer,
+                                            0,
+                                            (int) Math.min(buffer.length, length - copied));
+                            int numBytesRead = baseChannel.read(byteBuffer, offset + copied);
+                            if (numBytesRead == -1) {
+                                throw new EOFException("Truncated base bundle");
+                            }
+                            digest.update(buffer, 0, numBytesRead);
+                            byteBuffer.flip();
+                            while (byteBuffer.hasRemaining()) {
+                                targetChannel.write(byteBuffer);
+                            }
+                            copied += numBytesRead;
+                        }
+                    }
+                    total += length;
+                } else if (op == OP_ADD) {
+                    int remaining = patchStream.readInt();
+                    if (remaining < 0) {
+                        throw new IOException("Malformed LiveBundle patch");
+                    }
+                    while (remaining > 0) {
+                        int numBytesRead =
+                                patchStream.read(buffer, 0, Math.min(buffer.length, remaining));
+                        if (numBytesRead == -1) {
+                            throw new EOFException("Truncated LiveBundle patch");
+                        }
+                        if (digest != null) {
+                            digest.update(buffer, 0, numBytesRead);
+                        }
+                        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, numBytesRead);
+                        while (byteBuffer.hasRemaining()) {
+                            targetChannel.write(byteBuffer);
+                        }
+                        remaining -= numBytesRead;
+                        total += numBytesRead;
+                    }
+                } else {
+                    throw new IOException("Unknown LiveBundle patch operation " + op);
+                }
+            }
+            // Make sure the bundle is on disk before it gets committed
+            targetChannel.force(true);
+        } finally {
+            fout.close();
+            baseFile.close();
+        }
+        return total;
+    }
+}
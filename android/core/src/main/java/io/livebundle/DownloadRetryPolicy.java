@@ -0,0 +1,54 @@
+package io.livebundle;
+
+import java.io.IOException;
+import java.util.zip.ZipException;
+
+import okhttp3.Call;
+import okhttp3.Response;
+
+/**
+ * Decides whether a failed bundle download is retried, and when. Downloads interrupted by
+ * network or transient server errors are retried with exponential backoff, up to {@link
+ * #MAX_ATTEMPTS} attempts (resuming from the bytes already downloaded, see ResumableDownload).
+ */
+final class DownloadRetryPolicy {
+    static final int MAX_ATTEMPTS = 4;
+    static final long BASE_DELAY_MS = 1000;
+
+    private DownloadRetryPolicy() {}
+
+    /**
+     * Checks whether a failed download attempt is worth retrying
+     *
+     * @param attempt  Number of the failed attempt, starting at 1
+     * @param call     Call of the failed attempt
+     * @param response Response of the failed attempt, or null if none was received
+     * @param e        Cause of the failure
+     */
+    static boolean shouldRetry(int attempt, Call call, Response response, Exception e) {
+        if (attempt >= MAX_ATTEMPTS || call.isCanceled()) {
+            return false;
+        }
+        if (response != null && !response.isSuccessful()) {
+            int code = response.code();
+            if (code == ResumableDownload.HTTP_RANGE_NOT_SATISFIABLE) {
+                // Stale partial file, discarded (see ResumableDownload.checkResponse)
+                return response.request().header("Range") != null;
+            }
+            return code >= 500 || code == 408 || code == 429;
+        }
+        // Corrupted archives (or bundles) will not get any better
+        return e instanceof IOException
+                && !(e instanceof ZipException)
+                && !(e instanceof BundleDigest.MismatchException);
+    }
+
+    /**
+     * Returns the delay before retrying a failed download attempt, in ms
+     *
+     * @param attempt Number of the failed attempt, starting at 1
+     */
+    static long getDelayMs(int attempt) {
+        return BASE_DELAY_MS << (attempt - 1);
+    }
+}
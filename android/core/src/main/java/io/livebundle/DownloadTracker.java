@@ -0,0 +1,15 @@
+package io.livebundle;
+
+import java.io.InputStream;
+
+/** Tracks the bytes of a download as they are read, to report its progress (DownloadProgress) */
+interface DownloadTracker {
+    /**
+     * Starts tracking a download stream
+     *
+     * @param source     Downloaded stream
+     * @param bytesTotal Total number of bytes of the stream, or -1 if unknown
+     * @return A stream reading from source and tracking progress
+     */
+    InputStream track(InputStream source, long bytesTotal);
+}
@@ -0,0 +1,277 @@
+package io.livebundle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In memory index of package summaries, backing the package catalog (see PackageCatalog, which
+ * persists it).
+ *
+ * <p>Packages are kept sorted from most to least recent, and are also indexed by branch, pull
+ * request and platform, in lists sorted the same way. A query scans the smallest list matching
+ * its filters, from the position of its cursor, so that listing and filtering a page stays well
+ * under a frame (16 ms) with thousands of packages (see PackageIndexTest and
+ * PackageIndexBenchmark). Cursors are keys of the last package of a page (rather than offsets),
+ * so that pages remain consistent while packages are added.
+ *
+ * <p>The index is not thread safe.
+ */
+final class PackageIndex {
+    /** Filters of a query. Null filters match any package. */
+    static final class Query {
+        // Or null
+        final String branch;
+        // Or null
+        final String pr;
+        // Or null
+        final String platform;
+        // Lower case text to look for in package summaries, or null
+        final String text;
+
+        Query(String branch, String pr, String platform, String text) {
+            this.branch = branch;
+            this.pr = pr;
+            this.platform = platform;
+            this.text = text == null || text.isEmpty() ? null : text.toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /** Summary of a package */
+    static final class Entry {
+        final String id;
+        final long timestamp;
+        // Or null
+        final String branch;
+        // Or null
+        final String pr;
+        final List<String> platforms;
+        // Summary, serialized
+        final String json;
+        // Lower case text matched by text queries
+        final String searchText;
+
+        Entry(
+                String id,
+                long timestamp,
+                String branch,
+                String pr,
+                List<String> platforms,
+                String json,
+                String searchText) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.branch = branch;
+            this.pr = pr;
+            this.platforms = platforms;
+            this.json = json;
+            this.searchText = searchText;
+        }
+    }
+
+    /** Page of the packages matching a query */
+    static final class Page {
+        // Most recent first
+        final List<Entry> entries;
+        // Cursor of the next page, or null if this is the last page
+        final String cursor;
+
+        Page(List<Entry> entries, String cursor) {
+            this.entries = entries;
+            this.cursor = cursor;
+        }
+    }
+
+    // Most recent first, ties broken by id
+    private static final Comparator<Entry> RECENT_FIRST =
+            new Comparator<Entry>() {
+                @Override
+                public int compare(Entry a, Entry b) {
+                    if (a.timestamp != b.timestamp) {
+                        return a.timestamp > b.timestamp ? -1 : 1;
+                    }
+                    return a.id.compareTo(b.id);
+                }
+            };
+
+    private final int mMaxSize;
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    // All entries, most recent first
+    private final List<Entry> mSortedEntries = new ArrayList<>();
+    private final Map<String, List<Entry>> mEntriesByBranch = new HashMap<>();
+    private final Map<String, List<Entry>> mEntriesByPr = new HashMap<>();
+    private final Map<String, List<Entry>> mEntriesByPlatform = new HashMap<>();
+
+    /**
+     * @param maxSize Maximum number of packages, the least recent packages being evicted
+     *     past it (see {@link #trimToSize})
+     */
+    PackageIndex(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /** Returns the summary of a package, or null if not indexed */
+    Entry get(String id) {
+        return mEntries.get(id);
+    }
+
+    /** Returns the number of packages */
+    int size() {
+        return mEntries.size();
+    }
+
+    /** Returns all the package summaries, most recent first */
+    List<Entry> getEntries() {
+        return Collections.unmodifiableList(mSortedEntries);
+    }
+
+    /** Indexes a package summary, replacing the previous one of the package if any */
+    void put(Entry entry) {
+        Entry previous = mEntries.put(entry.id, entry);
+        if (previous != null) {
+            unindex(previous);
+        }
+        insert(mSortedEntries, entry);
+        insert(mEntriesByBranch, entry.branch, entry);
+        insert(mEntriesByPr, entry.pr, entry);
+        for (String platform : entry.platforms) {
+            insert(mEntriesByPlatform, platform, entry);
+        }
+    }
+
+    /** Evicts the least recent packages, if the index has too many packages */
+    void trimToSize() {
+        while (mSortedEntries.size() > mMaxSize) {
+            Entry entry = mSortedEntries.get(mSortedEntries.size() - 1);
+            mEntries.remove(entry.id);
+            unindex(entry);
+        }
+    }
+
+    /**
+     * Lists the packages matching a query, most recent first, one page at a time
+     *
+     * @param query  Filters of the query
+     * @param cursor Cursor returned along with the previous page, or null for the first page
+     * @param limit  Maximum number of packages of the page (at least 1)
+     * @return The page
+     */
+    Page query(Query query, String cursor, int limit) {
+        limit = Math.max(1, limit);
+        List<Entry> candidates = mSortedEntries;
+        candidates = smallest(candidates, query.branch, mEntriesByBranch);
+        candidates = smallest(candidates, query.pr, mEntriesByPr);
+        candidates = smallest(candidates, query.platform, mEntriesByPlatform);
+        int start = 0;
+        Entry cursorEntry = parseCursor(cursor);
+        if (cursorEntry != null) {
+            int position = Collections.binarySearch(candidates, cursorEntry, RECENT_FIRST);
+            start = position >= 0 ? position + 1 : -position - 1;
+        }
+        List<Entry> entries = new ArrayList<>(Math.min(limit, candidates.size()));
+        boolean hasMore = false;
+        for (int i = start; i < candidates.size(); i++) {
+            Entry entry = candidates.get(i);
+            if (!matches(entry, query)) {
+                continue;
+            }
+            if (entries.size() == limit) {
+                hasMore = true;
+                break;
+            }
+            entries.add(entry);
+        }
+        if (!hasMore) {
+            return new Page(entries, null);
+        }
+        Entry last = entries.get(entries.size() - 1);
+        return new Page(entries, last.timestamp + ":" + last.id);
+    }
+
+    private static List<Entry> smallest(
+            List<Entry> candidates, String value, Map<String, List<Entry>> index) {
+        if (value == null) {
+            return candidates;
+        }
+        List<Entry> entries = index.get(value);
+        if (entries == null) {
+            return Collections.emptyList();
+        }
+        return entries.size() < candidates.size() ? entries : candidates;
+    }
+
+    private static boolean matches(Entry entry, Query query) {
+        return (query.branch == null || query.branch.equals(entry.branch))
+                && (query.pr == null || query.pr.equals(entry.pr))
+                && (query.platform == null || entry.platforms.contains(query.platform))
+                && (query.text == null || entry.searchText.contains(query.text));
+    }
+
+    /** Returns a search key matching the position of a cursor, or null */
+    private static Entry parseCursor(String cursor) {
+        int separator = cursor == null ? -1 : cursor.indexOf(':');
+        if (separator < 0) {
+            return null;
+        }
+        try {
+            long timestamp = Long.parseLong(cursor.substring(0, separator));
+            return new Entry(
+                    cursor.substring(separator + 1),
+                    timestamp,
+                    null,
+                    null,
+                    Collections.<String>emptyList(),
+                    "",
+                    "");
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void unindex(Entry entry) {
+        remove(mSortedEntries, entry);
+        remove(mEntriesByBranch, entry.branch, entry);
+        remove(mEntriesByPr, entry.pr, entry);
+        for (String platform : entry.platforms) {
+            remove(mEntriesByPlatform, platform, entry);
+        }
+    }
+
+    private static void insert(Map<String, List<Entry>> index, String key, Entry entry) {
+        if (key == null) {
+            return;
+        }
+        List<Entry> entries = index.get(key);
+        if (entries == null) {
+            entries = new ArrayList<>();
+            index.put(key, entries);
+        }
+        insert(entries, entry);
+    }
+
+    private static void insert(List<Entry> entries, Entry entry) {
+        int position = Collections.binarySearch(entries, entry, RECENT_FIRST);
+        entries.add(position >= 0 ? position : -position - 1, entry);
+    }
+
+    private static void remove(Map<String, List<Entry>> index, String key, Entry entry) {
+        List<Entry> entries = key == null ? null : index.get(key);
+        if (entries != null) {
+            remove(entries, entry);
+            if (entries.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static void remove(List<Entry> entries, Entry entry) {
+        int position = Collections.binarySearch(entries, entry, RECENT_FIRST);
+        if (position >= 0) {
+            entries.remove(position);
+        }
+    }
+}
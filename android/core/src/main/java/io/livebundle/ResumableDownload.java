@@ -0,0 +1,229 @@
+package io.livebundle;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Keeps the bytes of a download in a partial file while they are being streamed, so that an
+ * interrupted download can be resumed using an HTTP Range request rather than started over.
+ *
+ * <p>The partial file is validated using If-Range with the ETag (or Last-Modified date) of the
+ * first response. If the resource changed in between, the server replies with the whole
+ * resource and the partial file is started over. When resuming, the stream returned by {@link
+ * #open} replays the partial file before the remaining bytes coming from the network, so that
+ * consumers (inflater) always see the whole resource. A range that does not start at the end of
+ * the partial file is never consumed : the partial file is discarded, and the download has to be
+ * retried from scratch. So is a partial file the server cannot resume from (416 response), which
+ * happens when it already holds the whole resource, the download having failed after the last
+ * byte was received (while committing the bundle for example).
+ */
+final class ResumableDownload {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int HTTP_PARTIAL_CONTENT = 206;
+    static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final int PART_BUFFER_SIZE = 64 * 1024;
+
+    private final File mPartFile;
+    private final File mValidatorFile;
+    private long mResumedBytes;
+
+    /**
+     * @param partsDir Directory where partial files are kept
+     * @param name     Name of the download, unique within parts directory
+     */
+    ResumableDownload(File partsDir, String name) {
+        if (!partsDir.isDirectory()) {
+            partsDir.mkdirs();
+        }
+        mPartFile = new File(partsDir, name + ".part");
+        mValidatorFile = new File(partsDir, name + ".validator");
+    }
+
+    /** Adds Range and If-Range headers to a download request, if there is a partial file */
+    Request.Builder prepare(Request.Builder builder) {
+        // Byte offsets of the partial file must match the ones of Range requests, so make sure
+        // the response is not transparently decompressed
+        builder.header("Accept-Encoding", "identity");
+        String validator = readValidator();
+        long partLength = mPartFile.length();
+        if (validator != null && partLength > 0) {
+            builder.header("Range", "bytes=" + partLength + "-").header("If-Range", validator);
+        }
+        return builder;
+    }
+
+    /**
+     * Checks that a download response can be opened. If the server cannot resume from the
+     * partial file (416 response to a range request), the partial file is discarded, so that the
+     * retried request is not a range request.
+     *
+     * @param response Response of a request prepared with {@link #prepare}
+     * @throws IOException If the response is not successful, or has no body
+     */
+    void checkResponse(Response response) throws IOException {
+        if (response.isSuccessful() && response.body() != null) {
+            return;
+        }
+        if (response.code() == HTTP_RANGE_NOT_SATISFIABLE) {
+            discard();
+        }
+        throw new IOException(
+                String.format(
+                        "Bundle download failed : %d %s", response.code(), response.message()));
+    }
+
+    /**
+     * Opens the stream of the whole resource from a successful download response
+     *
+     * @param response Response of a request prepared with {@link #prepare}
+     * @param body     Response body, possibly wrapped (to track progress for example)
+     * @return Stream of the whole resource, that is the partial file content followed by the
+     *     response body if the download is resumed, or just the response body otherwise. In both
+     *     cases, the bytes coming from the response body are appended to the partial file.
+     * @throws IOException If the response is a range that cannot be appended to the partial file
+     *     (the partial file is then discarded, so that the retried request is not a range
+     *     request), or if the partial file cannot be opened
+     */
+    InputStream open(Response response, InputStream body) throws IOException {
+        long partLength = mPartFile.length();
+        if (response.code() == HTTP_PARTIAL_CONTENT) {
+            long rangeStart = getRangeStart(response);
+            if (partLength == 0 || partLength != rangeStart) {
+                discard();
+                throw new IOException(
+                        String.format(
+                                "Unexpected range starting at %d, expected %d",
+                                rangeStart, partLength));
+            }
+            mResumedBytes = partLength;
+            return new SequenceInputStream(
+                    new FileInputStream(mPartFile),
+                    new TeeInputStream(body, openPartFile(true)));
+        }
+        // Not resumed, start over
+        mResumedBytes = 0;
+        discard();
+        writeValidator(response);
+        return new TeeInputStream(body, openPartFile(false));
+    }
+
+    /** Returns the number of bytes that were already downloaded when resuming */
+    long getResumedBytes() {
+        return mResumedBytes;
+    }
+
+    /** Deletes the partial file (download complete, or not resumable) */
+    void discard() {
+        mPartFile.delete();
+        mValidatorFile.delete();
+    }
+
+    private OutputStream openPartFile(boolean append) throws IOException {
+        // Buffered bytes are flushed when the stream is closed, including on download failure,
+        // as they were successfully downloaded
+        return new BufferedOutputStream(new FileOutputStream(mPartFile, append), PART_BUFFER_SIZE);
+    }
+
+    private static long getRangeStart(Response response) {
+        // Content-Range: bytes <start>-<end>/<size>
+        String contentRange = response.header("Content-Range");
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int dashIndex = contentRange.indexOf('-');
+        try {
+            return Long.parseLong(contentRange.substring("bytes ".length(), dashIndex).trim());
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /** Returns the validator of the partial file, or null if there is none */
+    private String readValidator() {
+        if (!mValidatorFile.isFile()) {
+            return null;
+        }
+        try {
+            FileInputStream fin = new FileInputStream(mValidatorFile);
+            try {
+                byte[] bytes = new byte[(int) mValidatorFile.length()];
+                int offset = 0;
+                int numBytesRead;
+                while (offset < bytes.length
+                        && (numBytesRead = fin.read(bytes, offset, bytes.length - offset)) != -1) {
+                    offset += numBytesRead;
+                }
+                return new String(bytes, 0, offset, UTF_8);
+            } finally {
+                fin.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeValidator(Response response) throws IOException {
+        // Weak ETags cannot be used with If-Range
+        String etag = response.header("ETag");
+        String validator =
+                etag != null && !etag.startsWith("W/") ? etag : response.header("Last-Modified");
+        if (validator == null) {
+            // Download will not be resumable
+            return;
+        }
+        FileOutputStream fout = new FileOutputStream(mValidatorFile);
+        try {
+            fout.write(validator.getBytes(UTF_8));
+        } finally {
+            fout.close();
+        }
+    }
+
+    /** Input stream copying the bytes read from its source to an output stream */
+    private static final class TeeInputStream extends FilterInputStream {
+        private final OutputStream mCopy;
+
+        TeeInputStream(InputStream source, OutputStream copy) {
+            super(source);
+            mCopy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCopy.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int numBytesRead = super.read(b, off, len);
+            if (numBytesRead > 0) {
+                mCopy.write(b, off, numBytesRead);
+            }
+            return numBytesRead;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                mCopy.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package io.livebundle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Downloads a resource over several parallel connections, each one fetching a byte range
+ * (segment) of the resource with an HTTP Range request. On high latency links, a single
+ * connection only gets a fraction of the available bandwidth, as its throughput is bound by its
+ * congestion window over the round trip time.
+ *
+ * <p>Segments are written in place in the target file (preallocated to the resource size) using
+ * positional writes, so there is no need to stitch them together afterwards. The number of
+ * segments adapts to the resource size : segments are at least {@link #MIN_SEGMENT_SIZE} bytes,
+ * and at most {@link #MAX_SEGMENTS} are downloaded in parallel.
+ *
+ * <p>Segments go through a client derived from the LiveBundle http client, restricted to
+ * HTTP/1.1 so that each segment gets its own connection (over HTTP/2, they would all be
+ * multiplexed over a single connection, sharing its congestion window), and with its own
+ * dispatcher so that segments do not take the slots of other requests.
+ */
+final class SegmentedDownload {
+    static final long MIN_SEGMENT_SIZE = 2 * 1024 * 1024;
+    static final int MAX_SEGMENTS = 4;
+    private static final int HTTP_PARTIAL_CONTENT = 206;
+
+    interface Listener {
+        /** Called once all segments are written and synced to disk */
+        void onComplete();
+
+        /**
+         * Called if any segment could not be downloaded (other segments are canceled)
+         *
+         * @param e Cause
+         */
+        void onFailure(IOException e);
+    }
+
+    private final long mSize;
+    private final File mTarget;
+    private final DownloadTracker mTracker;
+    private final List<Call> mCalls = new ArrayList<>();
+    private final long mSegmentSize;
+    private final AtomicInteger mRemainingSegments = new AtomicInteger();
+    private final AtomicBoolean mDone = new AtomicBoolean();
+    private FileChannel mChannel;
+    private Listener mListener;
+
+    /**
+     * @param httpClient Http client to derive the segment client from
+     * @param request    Request of the whole resource
+     * @param size       Size of the resource, in bytes
+     * @param target     File to write the resource to
+     * @param tracker    Tracker of the progress of the download
+     */
+    SegmentedDownload(
+            OkHttpClient httpClient,
+            Request request,
+            long size,
+            File target,
+            DownloadTracker tracker) {
+        mSize = size;
+        mTarget = target;
+        mTracker = tracker;
+        int segmentCount = getSegmentCount(size);
+        mSegmentSize = (size + segmentCount - 1) / segmentCount;
+        OkHttpClient segmentClient =
+                httpClient
+                        .newBuilder()
+                        .protocols(Collections.singletonList(Protocol.HTTP_1_1))
+                        .dispatcher(new Dispatcher())
+                        .build();
+        for (long start = 0; start < size; start += mSegmentSize) {
+            long end = Math.min(start + mSegmentSize, size) - 1;
+            mCalls.add(
+                    segmentClient.newCall(
+                            request.newBuilder()
+                                    .header("Range", "bytes=" + start + "-" + end)
+                                    // Byte offsets must be the ones of the stored resource
+                                    .header("Accept-Encoding", "identity")
+                                    .build()));
+        }
+    }
+
+    /**
+     * Returns a HEAD request of a resource, to find out its size and whether it can be
+     * downloaded in segments (see {@link #getSize})
+     *
+     * @param request Request of the whole resource
+     */
+    static Request newSizeRequest(Request request) {
+        return request.newBuilder().head().header("Accept-Encoding", "identity").build();
+    }
+
+    /**
+     * Returns the size of a resource from the response to its size request, or -1 if the
+     * resource cannot be downloaded in segments (the storage does not support range requests)
+     */
+    static long getSize(Response response) {
+        if (!response.isSuccessful() || !"bytes".equals(response.header("Accept-Ranges"))) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(response.header("Content-Length", "-1"));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Returns the number of segments to download a resource of a given size in */
+    static int getSegmentCount(long size) {
+        return (int) Math.max(1, Math.min(MAX_SEGMENTS, size / MIN_SEGMENT_SIZE));
+    }
+
+    /** Returns the calls of the segments. Canceling any of them cancels the whole download. */
+    List<Call> getCalls() {
+        return mCalls;
+    }
+
+    /**
+     * Starts downloading all segments
+     *
+     * @param listener Listener notified once the download is complete, or failed
+     * @throws IOException If the target file cannot be created
+     */
+    void start(Listener listener) throws IOException {
+        mListener = listener;
+        RandomAccessFile file = new RandomAccessFile(mTarget, "rw");
+        try {
+            file.setLength(mSize);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        mChannel = file.getChannel();
+        mRemainingSegments.set(mCalls.size());
+        long start = 0;
+        for (Call call : mCalls) {
+            call.enqueue(new SegmentCallback(start, Math.min(mSegmentSize, mSize - start)));
+            start += mSegmentSize;
+        }
+    }
+
+    private void onSegmentDone() {
+        if (mRemainingSegments.decrementAndGet() > 0 || !mDone.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            mChannel.force(true);
+            mChannel.close();
+        } catch (IOException e) {
+            mListener.onFailure(e);
+            return;
+        }
+        mListener.onComplete();
+    }
+
+    private void onSegmentFailure(IOException e) {
+        if (!mDone.compareAndSet(false, true)) {
+            return;
+        }
+        for (Call call : mCalls) {
+            call.cancel();
+        }
+        try {
+            mChannel.close();
+        } catch (IOException ignored) {
+        }
+        mListener.onFailure(e);
+    }
+
+    private final class SegmentCallback implements Callback {
+        private final long mStart;
+        private final long mLength;
+
+        SegmentCallback(long start, long length) {
+            mStart = start;
+            mLength = length;
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) {
+            try {
+                ResponseBody body = response.body();
+                // Servers ignoring Range requests reply with the whole resource
+                if (response.code() != HTTP_PARTIAL_CONTENT
+                        || body == null
+                        || body.contentLength() != mLength) {
+                    throw new IOException(
+                            String.format(
+                                    "Segment download failed : %d %s",
+                                    response.code(), response.message()));
+                }
+                write(mTracker.track(body.byteStream(), mSize));
+                onSegmentDone();
+            } catch (IOException e) {
+                onSegmentFailure(e);
+            } finally {
+                response.close();
+            }
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            onSegmentFailure(e);
+        }
+
+        private void write(InputStream source) throws IOException {
+            byte[] buffer = BundleInflater.obtainBuffer();
+            long position = mStart;
+            long end = mStart + mLength;
+            int numBytesRead;
+            while (position < end && (numBytesRead = source.read(buffer)) != -1) {
+                ByteBuffer byteBuffer =
+                        ByteBuffer.wrap(buffer, 0, (int) Math.min(numBytesRead, end - position));
+                while (byteBuffer.hasRemaining()) {
+                    position += mChannel.write(byteBuffer, position);
+                }
+            }
+            if (position != end) {
+                throw new IOException("Segment download truncated");
+            }
+        }
+    }
+}
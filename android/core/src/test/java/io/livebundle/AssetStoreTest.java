@@ -0,0 +1,196 @@
+package io.livebundle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class AssetStoreTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mRootDir;
+    private File mFilesDir;
+    private TestLinker mLinker;
+    private AssetStore mStore;
+
+    @Before
+    public void setUp() throws IOException {
+        mRootDir = new File(mFolder.getRoot(), "assets");
+        mFilesDir = mFolder.newFolder("files");
+        mLinker = new TestLinker();
+        mStore = new AssetStore(mRootDir, mLinker);
+    }
+
+    @Test
+    public void storesAssetsOnce() throws IOException {
+        File logo = new File(mFilesDir, "logo.png");
+        File logoCopy = new File(mFilesDir, "logo-copy.png");
+        File icon = new File(mFilesDir, "icon.png");
+
+        mStore.put(content("logo"), logo);
+        mStore.put(content("logo"), logoCopy);
+        mStore.put(content("icon"), icon);
+
+        assertEquals("logo", read(logo));
+        assertEquals("logo", read(logoCopy));
+        assertEquals("icon", read(icon));
+        assertEquals(2, getStoredFiles().size());
+        assertEquals(3, mLinker.getLinkCount(logo));
+    }
+
+    @Test
+    public void storesStreamedAssets() throws IOException {
+        File video = new File(mFilesDir, "video.mp4");
+        File videoCopy = new File(mFilesDir, "video-copy.mp4");
+
+        mStore.put(content("vid"), new ByteArrayInputStream(bytes("eo")), new byte[1], video);
+        mStore.put(content("v"), new ByteArrayInputStream(bytes("ideo")), new byte[1], videoCopy);
+
+        assertEquals("video", read(video));
+        assertEquals("video", read(videoCopy));
+        assertEquals(1, getStoredFiles().size());
+        // Nothing left behind by the second put
+        assertArrayEquals(new String[0], new File(mRootDir, "tmp").list());
+    }
+
+    @Test
+    public void replacesExistingTarget() throws IOException {
+        File logo = new File(mFilesDir, "logo.png");
+        mStore.put(content("logo"), logo);
+
+        mStore.put(content("logo v2"), logo);
+
+        assertEquals("logo v2", read(logo));
+    }
+
+    @Test
+    public void collectsUnreferencedAssets() throws IOException {
+        File logo = new File(mFilesDir, "logo.png");
+        File icon = new File(mFilesDir, "icon.png");
+        mStore.put(content("logo"), logo);
+        mStore.put(content("icon"), icon);
+        icon.delete();
+
+        mStore.collectGarbage();
+
+        List<File> storedFiles = getStoredFiles();
+        assertEquals(1, storedFiles.size());
+        assertEquals("logo", read(storedFiles.get(0)));
+        assertEquals("logo", read(logo));
+    }
+
+    @Test
+    public void keepsAssetsOfUnknownLinkCount() throws IOException {
+        File logo = new File(mFilesDir, "logo.png");
+        mStore.put(content("logo"), logo);
+        logo.delete();
+        mLinker.mLinkCountKnown = false;
+
+        mStore.collectGarbage();
+
+        assertEquals(1, getStoredFiles().size());
+    }
+
+    @Test
+    public void doesNotCollectIfFilesCannotBeLinked() throws IOException {
+        File logo = new File(mFilesDir, "logo.png");
+        mStore.put(content("logo"), logo);
+        logo.delete();
+        mLinker.mCanLink = false;
+
+        mStore.collectGarbage();
+
+        assertFalse(mStore.canLink());
+        assertEquals(1, getStoredFiles().size());
+    }
+
+    @Test
+    public void collectsGarbageOnceRequested() throws IOException {
+        File logo = new File(mFilesDir, "logo.png");
+        mStore.put(content("logo"), logo);
+        logo.delete();
+
+        assertFalse(mStore.collectGarbageIfRequested());
+        assertEquals(1, getStoredFiles().size());
+
+        mStore.requestGarbageCollection();
+
+        assertTrue(mStore.collectGarbageIfRequested());
+        assertEquals(0, getStoredFiles().size());
+        assertFalse(mStore.collectGarbageIfRequested());
+    }
+
+    private List<File> getStoredFiles() {
+        List<File> storedFiles = new ArrayList<>();
+        File[] dirs = mRootDir.listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                File[] files = dir.listFiles();
+                if (files != null && !dir.getName().equals("tmp")) {
+                    for (File file : files) {
+                        storedFiles.add(file);
+                    }
+                }
+            }
+        }
+        return storedFiles;
+    }
+
+    private static ByteArrayOutputStream content(String text) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        content.write(bytes(text));
+        return content;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(UTF_8);
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), UTF_8);
+    }
+
+    /** Hard links files, using the link count of the file system */
+    private static final class TestLinker implements AssetStore.FileLinker {
+        boolean mCanLink = true;
+        boolean mLinkCountKnown = true;
+
+        @Override
+        public boolean canLink() {
+            return mCanLink;
+        }
+
+        @Override
+        public void link(File source, File link) throws IOException {
+            Files.createLink(link.toPath(), source.toPath());
+        }
+
+        @Override
+        public int getLinkCount(File file) {
+            if (!mLinkCountKnown) {
+                return -1;
+            }
+            try {
+                return ((Number) Files.getAttribute(file.toPath(), "unix:nlink")).intValue();
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+    }
+}
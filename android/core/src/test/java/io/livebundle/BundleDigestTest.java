@@ -0,0 +1,60 @@
+package io.livebundle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+
+public class BundleDigestTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // SHA-256 of "abc" (FIPS 180-2 test vector)
+    private static final String ABC_DIGEST =
+            "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+    private static final String ABD_DIGEST =
+            "a52d159f262b2c6ddb724a61840befc36eb30c88877a4030b65cbe86298449c9";
+
+    @Rule public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void digestsFile() throws IOException {
+        File file = mFolder.newFile();
+        FileOutputStream fout = new FileOutputStream(file);
+        try {
+            fout.write("abc".getBytes(UTF_8));
+        } finally {
+            fout.close();
+        }
+
+        assertEquals(ABC_DIGEST, BundleDigest.digest(file));
+    }
+
+    @Test
+    public void verifiesMatchingDigestIgnoringCase() throws IOException {
+        MessageDigest digest = BundleDigest.create();
+        digest.update("abc".getBytes(UTF_8));
+
+        assertEquals(ABC_DIGEST, BundleDigest.verify(digest, ABC_DIGEST.toUpperCase()));
+    }
+
+    @Test
+    public void rejectsMismatchingDigest() {
+        MessageDigest digest = BundleDigest.create();
+        digest.update("abd".getBytes(UTF_8));
+        try {
+            BundleDigest.verify(digest, ABC_DIGEST);
+            fail();
+        } catch (BundleDigest.MismatchException e) {
+            assertEquals(
+                    "Bundle digest mismatch : expected " + ABC_DIGEST + ", got " + ABD_DIGEST,
+                    e.getMessage());
+        }
+    }
+}
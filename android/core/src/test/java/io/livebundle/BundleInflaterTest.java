@@ -0,0 +1,112 @@
+package io.livebundle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class BundleInflaterTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mTarget;
+    private File mFilesDir;
+
+    @Before
+    public void setUp() throws IOException {
+        BundleInflater.setAssetStore(null);
+        mTarget = new File(mFolder.getRoot(), "index.android.bundle");
+        mFilesDir = mFolder.newFolder("files");
+    }
+
+    @Test
+    public void inflatesBundleAndExtractsFiles() throws IOException {
+        // Larger than the entries written in parallel
+        byte[] largeAsset = new byte[3 * 1024 * 1024];
+        new Random(0).nextBytes(largeAsset);
+        InputStream zipped =
+                zip(
+                        "index.android.bundle", "bundle".getBytes(UTF_8),
+                        "assets/", new byte[0],
+                        "assets/img/logo.png", "logo".getBytes(UTF_8),
+                        "assets/video.mp4", largeAsset);
+        MessageDigest digest = BundleDigest.create();
+
+        long total = BundleInflater.inflate(zipped, mTarget, mFilesDir, digest);
+
+        assertEquals(6, total);
+        assertEquals("bundle", read(mTarget));
+        assertEquals(BundleDigest.digest(mTarget), BundleDigest.toHex(digest.digest()));
+        assertEquals("logo", read(new File(mFilesDir, "assets/img/logo.png")));
+        assertArrayEquals(
+                largeAsset, Files.readAllBytes(new File(mFilesDir, "assets/video.mp4").toPath()));
+    }
+
+    @Test
+    public void skipsFilesWithoutFilesDirectory() throws IOException {
+        InputStream zipped =
+                zip(
+                        "index.android.bundle", "bundle".getBytes(UTF_8),
+                        "assets/logo.png", "logo".getBytes(UTF_8));
+
+        BundleInflater.inflate(zipped, mTarget);
+
+        assertEquals("bundle", read(mTarget));
+        assertEquals(0, mFilesDir.list().length);
+    }
+
+    @Test
+    public void rejectsEntriesOutsideOfFilesDirectory() throws IOException {
+        InputStream zipped =
+                zip(
+                        "index.android.bundle", "bundle".getBytes(UTF_8),
+                        "assets/../../evil.js", "evil".getBytes(UTF_8));
+        try {
+            BundleInflater.inflate(zipped, mTarget, mFilesDir, null);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Invalid LiveBundle zip entry assets/../../evil.js", e.getMessage());
+        }
+        assertFalse(new File(mFolder.getRoot(), "evil.js").exists());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsEmptyArchive() throws IOException {
+        BundleInflater.inflate(zip(), mTarget);
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), UTF_8);
+    }
+
+    /** Zips entries, given as alternating names and contents */
+    private static InputStream zip(Object... entries) throws IOException {
+        ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+        ZipOutputStream out = new ZipOutputStream(zipped);
+        for (int i = 0; i < entries.length; i += 2) {
+            out.putNextEntry(new ZipEntry((String) entries[i]));
+            out.write((byte[]) entries[i + 1]);
+            out.closeEntry();
+        }
+        out.close();
+        return new ByteArrayInputStream(zipped.toByteArray());
+    }
+}
@@ -0,0 +1,150 @@
+package io.livebundle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.zip.GZIPOutputStream;
+
+public class BundlePatcherTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mBase;
+    private File mTarget;
+
+    @Before
+    public void setUp() throws IOException {
+        mBase = mFolder.newFile("base.js");
+        FileOutputStream fout = new FileOutputStream(mBase);
+        try {
+            fout.write("0123456789".getBytes(UTF_8));
+        } finally {
+            fout.close();
+        }
+        mTarget = new File(mFolder.getRoot(), "target.js");
+    }
+
+    @Test
+    public void appliesCopyAndAddOperations() throws IOException {
+        InputStream patch =
+                new Patch().copy(2, 3).add("abc").copy(0, 2).add("").copy(9, 1).end();
+
+        long total = BundlePatcher.apply(patch, mBase, mTarget);
+
+        assertEquals("234abc019", read(mTarget));
+        assertEquals(9, total);
+    }
+
+    @Test
+    public void computesDigestOfPatchedBundle() throws IOException {
+        MessageDigest digest = BundleDigest.create();
+
+        BundlePatcher.apply(new Patch().copy(5, 5).add("xyz").end(), mBase, mTarget, digest);
+
+        assertEquals("56789xyz", read(mTarget));
+        assertEquals(BundleDigest.digest(mTarget), BundleDigest.toHex(digest.digest()));
+    }
+
+    @Test
+    public void rejectsCopyOutsideOfBaseBundle() throws IOException {
+        try {
+            BundlePatcher.apply(new Patch().copy(8, 3).end(), mBase, mTarget);
+            fail();
+        } catch (IOException e) {
+            assertEquals("LiveBundle patch does not match base bundle", e.getMessage());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedPatch() throws IOException {
+        BundlePatcher.apply(new Patch().add("abc").truncated(2), mBase, mTarget);
+    }
+
+    @Test
+    public void rejectsUnknownFormat() throws IOException {
+        Patch patch = new Patch();
+        patch.mOut.writeByte(2);
+        try {
+            BundlePatcher.apply(patch.end(), mBase, mTarget);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Unsupported LiveBundle patch version 2", e.getMessage());
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), UTF_8);
+    }
+
+    /** Builder of gzip compressed patches, see BundlePatcher for the format */
+    private static final class Patch {
+        private final ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+        private final DataOutputStream mOut = new DataOutputStream(mBytes);
+
+        Patch() throws IOException {
+            mOut.write(new byte[] {'L', 'B', 'D', 'F'});
+        }
+
+        Patch copy(long offset, int length) throws IOException {
+            version();
+            mOut.writeByte(0x01);
+            mOut.writeLong(offset);
+            mOut.writeInt(length);
+            return this;
+        }
+
+        Patch add(String data) throws IOException {
+            version();
+            byte[] bytes = data.getBytes(UTF_8);
+            mOut.writeByte(0x02);
+            mOut.writeInt(bytes.length);
+            mOut.write(bytes);
+            return this;
+        }
+
+        InputStream end() throws IOException {
+            version();
+            mOut.writeByte(0x00);
+            return gzip(mBytes.toByteArray());
+        }
+
+        /** Returns the patch without its last bytes */
+        InputStream truncated(int numBytes) throws IOException {
+            byte[] bytes = mBytes.toByteArray();
+            byte[] truncated = new byte[bytes.length - numBytes];
+            System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+            return gzip(truncated);
+        }
+
+        private void version() throws IOException {
+            // Written before the first operation
+            if (mBytes.size() == 4) {
+                mOut.writeByte(1);
+            }
+        }
+
+        private static InputStream gzip(byte[] bytes) throws IOException {
+            ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+            GZIPOutputStream out = new GZIPOutputStream(gzipped);
+            out.write(bytes);
+            out.close();
+            return new ByteArrayInputStream(gzipped.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package io.livebundle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+public class PackageIndexTest {
+    private static final PackageIndex.Query ALL = new PackageIndex.Query(null, null, null, null);
+
+    private PackageIndex mIndex;
+
+    @Before
+    public void setUp() {
+        mIndex = new PackageIndex(100);
+    }
+
+    @Test
+    public void listsMostRecentFirst() {
+        mIndex.put(entry("b", 2, "master", null, "android"));
+        mIndex.put(entry("c", 3, "master", null, "android"));
+        mIndex.put(entry("a", 1, "master", null, "android"));
+        // Same timestamp, ordered by id
+        mIndex.put(entry("d", 2, "master", null, "android"));
+
+        PackageIndex.Page page = mIndex.query(ALL, null, 10);
+
+        assertEquals(Arrays.asList("c", "b", "d", "a"), ids(page));
+        assertNull(page.cursor);
+    }
+
+    @Test
+    public void filtersByBranchPrPlatformAndText() {
+        mIndex.put(entry("1", 1, "master", null, "android", "ios"));
+        mIndex.put(entry("2", 2, "feature", "42", "android"));
+        mIndex.put(entry("3", 3, "feature", "42", "ios"));
+        mIndex.put(entry("4", 4, "master", null, "ios"));
+
+        assertEquals(Arrays.asList("4", "1"), ids(query("master", null, null, null)));
+        assertEquals(Arrays.asList("3", "2"), ids(query(null, "42", null, null)));
+        assertEquals(Arrays.asList("2", "1"), ids(query(null, null, "android", null)));
+        assertEquals(Arrays.asList("3"), ids(query("feature", "42", "ios", null)));
+        assertEquals(Arrays.asList("3", "2"), ids(query(null, null, null, "FEAT")));
+        assertEquals(Collections.emptyList(), ids(query("unknown", null, null, null)));
+        assertEquals(Collections.emptyList(), ids(query("master", "42", null, null)));
+    }
+
+    @Test
+    public void replacesUpdatedPackages() {
+        mIndex.put(entry("1", 1, "master", null, "android"));
+        mIndex.put(entry("2", 2, "master", null, "android"));
+
+        mIndex.put(entry("1", 3, "feature", null, "ios"));
+
+        assertEquals(2, mIndex.size());
+        assertEquals(Arrays.asList("1", "2"), ids(mIndex.query(ALL, null, 10)));
+        assertEquals(Arrays.asList("2"), ids(query("master", null, null, null)));
+        assertEquals(Arrays.asList("2"), ids(query(null, null, "android", null)));
+        assertEquals(Arrays.asList("1"), ids(query(null, null, "ios", null)));
+    }
+
+    @Test
+    public void evictsLeastRecentPackages() {
+        PackageIndex index = new PackageIndex(2);
+        index.put(entry("1", 1, "master", null, "android"));
+        index.put(entry("3", 3, "feature", null, "android"));
+        index.put(entry("2", 2, "master", null, "android"));
+
+        index.trimToSize();
+
+        assertEquals(2, index.size());
+        assertNull(index.get("1"));
+        assertEquals(
+                Arrays.asList("2"),
+                ids(index.query(new PackageIndex.Query("master", null, null, null), null, 10)));
+    }
+
+    @Test
+    public void pagesThroughPackages() {
+        for (int i = 0; i < 25; i++) {
+            mIndex.put(entry("p" + i, i, i % 2 == 0 ? "master" : "feature", null, "android"));
+        }
+
+        List<String> all = listAll(ALL, 10);
+        List<String> master = listAll(new PackageIndex.Query("master", null, null, null), 4);
+
+        assertEquals(25, all.size());
+        assertEquals("p24", all.get(0));
+        assertEquals("p0", all.get(24));
+        assertEquals(13, master.size());
+        for (int i = 0; i < master.size(); i++) {
+            assertEquals("p" + (24 - 2 * i), master.get(i));
+        }
+    }
+
+    @Test
+    public void keepsPagesConsistentWhilePackagesAreAdded() {
+        for (int i = 0; i < 10; i++) {
+            mIndex.put(entry("p" + i, i, "master", null, "android"));
+        }
+        PackageIndex.Page first = mIndex.query(ALL, null, 4);
+        assertEquals(Arrays.asList("p9", "p8", "p7", "p6"), ids(first));
+
+        // More recent packages, and one slotting in right after the first page
+        mIndex.put(entry("p10", 10, "master", null, "android"));
+        mIndex.put(entry("p11", 11, "master", null, "android"));
+        mIndex.put(entry("p5b", 5, "master", null, "android"));
+        PackageIndex.Page second = mIndex.query(ALL, first.cursor, 4);
+
+        assertEquals(Arrays.asList("p5", "p5b", "p4", "p3"), ids(second));
+    }
+
+    @Test
+    public void continuesAfterRemovedCursorPackage() {
+        for (int i = 0; i < 6; i++) {
+            mIndex.put(entry("p" + i, i, "master", null, "android"));
+        }
+        PackageIndex.Page first = mIndex.query(ALL, null, 3);
+
+        // The last package of the first page is updated, and moves to the top
+        mIndex.put(entry("p3", 10, "master", null, "android"));
+        PackageIndex.Page second = mIndex.query(ALL, first.cursor, 3);
+
+        assertEquals(Arrays.asList("p2", "p1", "p0"), ids(second));
+        assertNull(second.cursor);
+    }
+
+    @Test
+    public void ignoresInvalidCursors() {
+        mIndex.put(entry("1", 1, "master", null, "android"));
+
+        assertEquals(Arrays.asList("1"), ids(mIndex.query(ALL, "garbage", 10)));
+        assertEquals(Arrays.asList("1"), ids(mIndex.query(ALL, "x:1", 10)));
+    }
+
+    @Test
+    public void listsPagesOfThousandsOfPackagesWithinAFrame() {
+        PackageIndex index = new PackageIndex(10000);
+        populate(index, 5000);
+        // Worst cases : no filter to narrow the scan down, or a text matching no package
+        PackageIndex.Query[] queries = {
+            ALL,
+            new PackageIndex.Query("branch-7", null, "ios", null),
+            new PackageIndex.Query(null, null, null, "no such package"),
+            new PackageIndex.Query(null, null, "android", "commit package-1")
+        };
+        // Warm up, then time the slowest page
+        for (int i = 0; i < 100; i++) {
+            for (PackageIndex.Query query : queries) {
+                index.query(query, null, 100);
+            }
+        }
+        long slowestNanos = 0;
+        for (PackageIndex.Query query : queries) {
+            String cursor = null;
+            do {
+                long start = System.nanoTime();
+                PackageIndex.Page page = index.query(query, cursor, 100);
+                slowestNanos = Math.max(slowestNanos, System.nanoTime() - start);
+                cursor = page.cursor;
+            } while (cursor != null);
+        }
+
+        assertTrue("Slowest page took " + slowestNanos + " ns", slowestNanos < 16000000);
+    }
+
+    /** Indexes packages looking like the ones of a busy project : many branches and prs */
+    private static void populate(PackageIndex index, int numPackages) {
+        for (int i = 0; i < numPackages; i++) {
+            String branch = "branch-" + i % 50;
+            String pr = i % 3 == 0 ? null : Integer.toString(i % 400);
+            String[] platforms =
+                    i % 4 == 0 ? new String[] {"ios"} : new String[] {"android", "ios"};
+            index.put(entry("package-" + i, 1600000000000L + i * 60000L, branch, pr, platforms));
+        }
+    }
+
+    private List<String> listAll(PackageIndex.Query query, int limit) {
+        List<String> ids = new ArrayList<>();
+        String cursor = null;
+        do {
+            PackageIndex.Page page = mIndex.query(query, cursor, limit);
+            assertTrue(page.entries.size() <= limit);
+            ids.addAll(ids(page));
+            cursor = page.cursor;
+        } while (cursor != null);
+        return ids;
+    }
+
+    private PackageIndex.Page query(String branch, String pr, String platform, String text) {
+        return mIndex.query(new PackageIndex.Query(branch, pr, platform, text), null, 10);
+    }
+
+    private static List<String> ids(PackageIndex.Page page) {
+        List<String> ids = new ArrayList<>();
+        for (PackageIndex.Entry entry : page.entries) {
+            ids.add(entry.id);
+        }
+        return ids;
+    }
+
+    private static PackageIndex.Entry entry(
+            String id, long timestamp, String branch, String pr, String... platforms) {
+        String searchText = id + "\n" + branch + (pr == null ? "" : "\n" + pr) + "\ncommit " + id;
+        return new PackageIndex.Entry(
+                id,
+                timestamp,
+                branch,
+                pr,
+                Arrays.asList(platforms),
+                "{\"id\":\"" + id + "\"}",
+                searchText.toLowerCase(Locale.ROOT));
+    }
+}
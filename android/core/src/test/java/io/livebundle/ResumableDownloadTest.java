@@ -0,0 +1,202 @@
+package io.livebundle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+public class ResumableDownloadTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String CONTENT = "0123456789abcdefghij";
+    private static final String ETAG = "\"v1\"";
+
+    @Rule public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private MockWebServer mServer;
+    private OkHttpClient mClient;
+    private ResumableDownload mDownload;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.start();
+        mClient = new OkHttpClient();
+        mDownload = new ResumableDownload(mFolder.newFolder("parts"), "bundle");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void resumesFromPartialFile() throws IOException, InterruptedException {
+        downloadPartially(8);
+        mServer.enqueue(
+                new MockResponse()
+                        .setResponseCode(206)
+                        .setHeader("ETag", ETAG)
+                        .setHeader("Content-Range", "bytes 8-19/20")
+                        .setBody(CONTENT.substring(8)));
+
+        assertEquals(CONTENT, download());
+        assertEquals(8, mDownload.getResumedBytes());
+        RecordedRequest request = mServer.takeRequest();
+        assertEquals("bytes=8-", request.getHeader("Range"));
+        assertEquals(ETAG, request.getHeader("If-Range"));
+    }
+
+    @Test
+    public void startsOverIfResourceChanged() throws IOException, InterruptedException {
+        downloadPartially(8);
+        // If-Range mismatch : whole resource
+        String changed = "ABCDEFGHIJ0123456789";
+        mServer.enqueue(new MockResponse().setHeader("ETag", "\"v2\"").setBody(changed));
+
+        assertEquals(changed, download());
+        assertEquals(0, mDownload.getResumedBytes());
+        assertEquals("bytes=8-", mServer.takeRequest().getHeader("Range"));
+
+        // The partial file is the one of the new resource
+        assertEquals("\"v2\"", downloadPartially(4).getHeader("If-Range"));
+    }
+
+    @Test
+    public void discardsPartialFileOnUnexpectedRange() throws IOException, InterruptedException {
+        downloadPartially(8);
+        mServer.enqueue(
+                new MockResponse()
+                        .setResponseCode(206)
+                        .setHeader("Content-Range", "bytes 4-19/20")
+                        .setBody(CONTENT.substring(4)));
+
+        try {
+            download();
+            fail("Unexpected range was consumed");
+        } catch (IOException expected) {
+            // Expected
+        }
+        assertEquals("bytes=8-", mServer.takeRequest().getHeader("Range"));
+
+        // Retried from scratch
+        mServer.enqueue(new MockResponse().setHeader("ETag", ETAG).setBody(CONTENT));
+        assertEquals(CONTENT, download());
+        assertNull(mServer.takeRequest().getHeader("Range"));
+    }
+
+    @Test
+    public void discardsPartialFileOnRangeNotSatisfiable()
+            throws IOException, InterruptedException {
+        // The partial file holds the whole resource, the previous attempt having failed after
+        // the last byte was received
+        downloadPartially(CONTENT.length());
+        mServer.enqueue(
+                new MockResponse().setResponseCode(416).setHeader("Content-Range", "bytes */20"));
+
+        Call call = mClient.newCall(newRequest());
+        Response response = call.execute();
+        try {
+            mDownload.checkResponse(response);
+            fail("Unsuccessful response was accepted");
+        } catch (IOException e) {
+            assertTrue(DownloadRetryPolicy.shouldRetry(1, call, response, e));
+        } finally {
+            response.close();
+        }
+        assertEquals("bytes=20-", mServer.takeRequest().getHeader("Range"));
+
+        // Retried from scratch
+        mServer.enqueue(new MockResponse().setHeader("ETag", ETAG).setBody(CONTENT));
+        assertEquals(CONTENT, download());
+        assertNull(mServer.takeRequest().getHeader("Range"));
+    }
+
+    @Test
+    public void doesNotRetryRangeNotSatisfiableWithoutRange() throws IOException {
+        mServer.enqueue(new MockResponse().setResponseCode(416));
+
+        Call call = mClient.newCall(newRequest());
+        Response response = call.execute();
+        try {
+            mDownload.checkResponse(response);
+            fail("Unsuccessful response was accepted");
+        } catch (IOException e) {
+            assertFalse(DownloadRetryPolicy.shouldRetry(1, call, response, e));
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Downloads the first bytes of the resource, keeping them in the partial file
+     *
+     * @return The download request, as received by the server
+     */
+    private RecordedRequest downloadPartially(int numBytes)
+            throws IOException, InterruptedException {
+        mServer.enqueue(new MockResponse().setHeader("ETag", ETAG).setBody(CONTENT));
+        Response response = mClient.newCall(newRequest()).execute();
+        try {
+            mDownload.checkResponse(response);
+            InputStream source = mDownload.open(response, response.body().byteStream());
+            try {
+                for (int i = 0; i < numBytes; i++) {
+                    source.read();
+                }
+            } finally {
+                // Interrupted download
+                source.close();
+            }
+        } finally {
+            response.close();
+        }
+        return mServer.takeRequest();
+    }
+
+    /** Downloads the whole resource, as streamed by the resumable download */
+    private String download() throws IOException {
+        Response response = mClient.newCall(newRequest()).execute();
+        try {
+            mDownload.checkResponse(response);
+            InputStream source = mDownload.open(response, response.body().byteStream());
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4];
+                int numBytesRead;
+                while ((numBytesRead = source.read(buffer)) != -1) {
+                    out.write(buffer, 0, numBytesRead);
+                }
+                return new String(out.toByteArray(), UTF_8);
+            } finally {
+                source.close();
+            }
+        } finally {
+            response.close();
+        }
+    }
+
+    private Request newRequest() {
+        return mDownload.prepare(new Request.Builder().url(mServer.url("/bundle.zip"))).build();
+    }
+
+}
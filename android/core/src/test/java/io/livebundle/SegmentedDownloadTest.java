@@ -0,0 +1,199 @@
+package io.livebundle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+public class SegmentedDownloadTest {
+    // Three segments, the last one shorter than the others
+    private static final int SIZE = (int) (3 * SegmentedDownload.MIN_SEGMENT_SIZE + 123);
+    private static final int SEGMENT_SIZE = (SIZE + 2) / 3;
+    private static final DownloadTracker NO_TRACKING =
+            new DownloadTracker() {
+                @Override
+                public InputStream track(InputStream source, long bytesTotal) {
+                    return source;
+                }
+            };
+
+    @Rule public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private byte[] mContent;
+    private MockWebServer mServer;
+    private OkHttpClient mClient;
+    private Request mRequest;
+    private File mTarget;
+
+    @Before
+    public void setUp() throws IOException {
+        mContent = new byte[SIZE];
+        new Random(42).nextBytes(mContent);
+        mServer = new MockWebServer();
+        mServer.start();
+        mClient = new OkHttpClient();
+        mRequest = new Request.Builder().url(mServer.url("/bundle.zip")).build();
+        mTarget = new File(mFolder.getRoot(), "bundle.zip.segments");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void downloadsSegments() throws IOException, InterruptedException {
+        mServer.setDispatcher(new RangeDispatcher(-1));
+
+        assertNull(download());
+        assertArrayEquals(mContent, Files.readAllBytes(mTarget.toPath()));
+
+        // Ranges cover the whole resource, without overlapping
+        List<long[]> ranges = new ArrayList<>();
+        for (int i = 0; i < mServer.getRequestCount(); i++) {
+            ranges.add(parseRange(mServer.takeRequest().getHeader("Range")));
+        }
+        assertEquals(3, ranges.size());
+        Collections.sort(
+                ranges,
+                new Comparator<long[]>() {
+                    @Override
+                    public int compare(long[] a, long[] b) {
+                        return Long.compare(a[0], b[0]);
+                    }
+                });
+        long start = 0;
+        for (long[] range : ranges) {
+            assertEquals(start, range[0]);
+            assertTrue(range[1] - range[0] < SEGMENT_SIZE);
+            start = range[1] + 1;
+        }
+        assertEquals(SIZE, start);
+    }
+
+    @Test
+    public void failsIfAnySegmentFails() throws IOException, InterruptedException {
+        mServer.setDispatcher(new RangeDispatcher(SEGMENT_SIZE));
+
+        IOException failure = download();
+
+        assertNotNull(failure);
+        assertTrue(failure.getMessage().contains("500"));
+    }
+
+    @Test
+    public void failsIfRangesAreIgnored() throws IOException, InterruptedException {
+        mServer.setDispatcher(
+                new Dispatcher() {
+                    @Override
+                    public MockResponse dispatch(RecordedRequest request) {
+                        return new MockResponse().setBody(new Buffer().write(mContent));
+                    }
+                });
+
+        assertNotNull(download());
+    }
+
+    @Test
+    public void getsSizeOfRangeResources() throws IOException {
+        mServer.enqueue(
+                new MockResponse()
+                        .setHeader("Accept-Ranges", "bytes")
+                        .setHeader("Content-Length", SIZE));
+        mServer.enqueue(new MockResponse().setHeader("Content-Length", SIZE));
+
+        assertEquals(SIZE, getSize());
+        // No Accept-Ranges
+        assertEquals(-1, getSize());
+    }
+
+    /** Runs a segmented download, returning its failure or null if it completed */
+    private IOException download() throws IOException, InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final IOException[] failure = new IOException[1];
+        new SegmentedDownload(mClient, mRequest, SIZE, mTarget, NO_TRACKING)
+                .start(
+                        new SegmentedDownload.Listener() {
+                            @Override
+                            public void onComplete() {
+                                done.countDown();
+                            }
+
+                            @Override
+                            public void onFailure(IOException e) {
+                                failure[0] = e;
+                                done.countDown();
+                            }
+                        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        return failure[0];
+    }
+
+    private long getSize() throws IOException {
+        Response response =
+                mClient.newCall(SegmentedDownload.newSizeRequest(mRequest)).execute();
+        try {
+            return SegmentedDownload.getSize(response);
+        } finally {
+            response.close();
+        }
+    }
+
+    /** Returns the start and end of a Range header (bytes=start-end) */
+    private static long[] parseRange(String range) {
+        String[] bounds = range.substring("bytes=".length()).split("-");
+        return new long[] {Long.parseLong(bounds[0]), Long.parseLong(bounds[1])};
+    }
+
+    /** Storage replying to range requests, failing the range starting at a given offset if any */
+    private final class RangeDispatcher extends Dispatcher {
+        private final long mFailingStart;
+
+        RangeDispatcher(long failingStart) {
+            mFailingStart = failingStart;
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            long[] range = parseRange(request.getHeader("Range"));
+            if (range[0] == mFailingStart) {
+                return new MockResponse().setResponseCode(500);
+            }
+            int length = (int) (range[1] - range[0] + 1);
+            return new MockResponse()
+                    .setResponseCode(206)
+                    .setHeader(
+                            "Content-Range",
+                            "bytes " + range[0] + "-" + range[1] + "/" + SIZE)
+                    .setBody(new Buffer().write(mContent, (int) range[0], length));
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package io.livebundle;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Cache;
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+/**
+ * Process wide manager of bundle downloads.
+ *
+ * <p>It outlives React context recreations (which recreate the LiveBundle native module), so that
+ * ongoing downloads keep going through a recreation, and can still be joined or canceled from the
+ * new React context. All requests go through a single OkHttpClient, sharing one connection pool
+ * (multiplexed over HTTP/2 when the storage supports it) and an on-disk http cache (for metadata,
+ * as bundles are stored in the bundle store). Bundle transfers go through a client derived from
+ * it, whose dispatcher bounds the number of concurrent transfers, so that metadata and other
+ * control requests are never queued behind them.
+ * Concurrent downloads of the same bundle are coalesced into a single download, whose outcome and
+ * progress are delivered to all requesters. The client is only built on first use, as its
+ * creation (TLS setup in particular) is too costly for the startup path of the application.
+ */
+final class BundleDownloadManager {
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int MAX_CONCURRENT_TRANSFERS = 4;
+    private static final String HTTP_CACHE_DIR_NAME = "livebundle/http";
+    private static final long HTTP_CACHE_MAX_SIZE_BYTES = 5 * 1024 * 1024;
+
+    /** Cache control of bundle requests, bundles are stored in the bundle store instead */
+    static final CacheControl NO_STORE = new CacheControl.Builder().noStore().build();
+
+    private static BundleDownloadManager sInstance;
+
+    /** Download of a bundle to the bundle store */
+    interface Task {
+        /**
+         * Starts the download
+         *
+         * @param callback Callback to report the download outcome to
+         */
+        void run(DownloadCallback callback);
+    }
+
+    private final Context mContext;
+    private OkHttpClient mHttpClient;
+    private OkHttpClient mTransferClient;
+    // Ongoing downloads, keyed by packageId/bundleId
+    private final Map<String, Download> mDownloads = new HashMap<>();
+    // Ongoing download calls, keyed by packageId/bundleId
+    private final ConcurrentMap<String, Call> mCalls = new ConcurrentHashMap<>();
+    private final DownloadProgress.Listener mProgressDispatcher =
+            new DownloadProgress.Listener() {
+                @Override
+                public void onProgress(DownloadProgress progress) {
+                    Download download;
+                    synchronized (BundleDownloadManager.this) {
+                        download =
+                                mDownloads.get(
+                                        getKey(progress.getPackageId(), progress.getBundleId()));
+                    }
+                    if (download != null) {
+                        for (DownloadProgress.Listener listener : download.mProgressListeners) {
+                            listener.onProgress(progress);
+                        }
+                    }
+                }
+            };
+
+    static synchronized BundleDownloadManager getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BundleDownloadManager(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private BundleDownloadManager(Context context) {
+        mContext = context;
+    }
+
+    /** Returns the http client shared by all LiveBundle requests, building it if needed */
+    synchronized OkHttpClient getHttpClient() {
+        if (mHttpClient == null) {
+            // Bundles are inflated while being streamed from the response body, so we don't rely
+            // on the React Native BundleDownloader, which first saves the whole zip file to disk
+            mHttpClient =
+                    new OkHttpClient.Builder()
+                            .cache(
+                                    new Cache(
+                                            new File(mContext.getCacheDir(), HTTP_CACHE_DIR_NAME),
+                                            HTTP_CACHE_MAX_SIZE_BYTES))
+                            .connectTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                            .readTimeout(0, TimeUnit.MILLISECONDS)
+                            .writeTimeout(0, TimeUnit.MILLISECONDS)
+                            .build();
+        }
+        return mHttpClient;
+    }
+
+    /**
+     * Returns the http client of bundle transfers, building it if needed. It shares the
+     * connection pool of the shared client, but has its own dispatcher, bounding the number of
+     * concurrent transfers.
+     */
+    synchronized OkHttpClient getTransferClient() {
+        if (mTransferClient == null) {
+            Dispatcher dispatcher = new Dispatcher();
+            dispatcher.setMaxRequests(MAX_CONCURRENT_TRANSFERS);
+            dispatcher.setMaxRequestsPerHost(MAX_CONCURRENT_TRANSFERS);
+            mTransferClient = getHttpClient().newBuilder().dispatcher(dispatcher).build();
+        }
+        return mTransferClient;
+    }
+
+    /**
+     * Downloads a bundle, or joins the ongoing download of the same bundle if any
+     *
+     * @param packageId        The id of the package containing the bundle
+     * @param bundleId         The id of the bundle
+     * @param task             Task starting the download, only run if not already downloading
+     * @param callback         Callback to report the download outcome to
+     * @param progressListener Listener to report the download progress to
+     */
+    void download(
+            String packageId,
+            String bundleId,
+            Task task,
+            DownloadCallback callback,
+            @Nullable DownloadProgress.Listener progressListener) {
+        final String key = getKey(packageId, bundleId);
+        final Download download;
+        boolean isNewDownload = false;
+        synchronized (this) {
+            Download ongoingDownload = mDownloads.get(key);
+            if (ongoingDownload == null) {
+                download = new Download();
+                mDownloads.put(key, download);
+                isNewDownload = true;
+            } else {
+                download = ongoingDownload;
+            }
+            download.mCallbacks.add(callback);
+            if (progressListener != null) {
+                download.mProgressListeners.add(progressListener);
+            }
+        }
+        if (!isNewDownload) {
+            return;
+        }
+        task.run(
+                new DownloadCallback() {
+                    @Override
+                    public void onSuccess() {
+                        for (DownloadCallback callback : complete(key, download)) {
+                            callback.onSuccess();
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(String code, Exception e) {
+                        for (DownloadCallback callback : complete(key, download)) {
+                            callback.onFailure(code, e);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Creates a tracker of the progress of a bundle download, reporting to the progress
+     * listeners of the requesters of the download
+     */
+    DownloadProgress createProgress(String packageId, String bundleId) {
+        DownloadProgress progress = new DownloadProgress(packageId, bundleId, mProgressDispatcher);
+        DownloadProgress previousProgress = null;
+        synchronized (this) {
+            Download download = mDownloads.get(getKey(packageId, bundleId));
+            if (download != null) {
+                // Superseded by a new attempt of the download
+                previousProgress = download.mProgress;
+                download.mProgress = progress;
+            }
+        }
+        // Progress reports take this lock, so stop outside of it
+        if (previousProgress != null) {
+            previousProgress.stop();
+        }
+        return progress;
+    }
+
+    /**
+     * Registers the current call of a bundle download, so that the download can be canceled. The
+     * call is canceled right away if the download was canceled already.
+     */
+    void registerCall(String packageId, String bundleId, Call call) {
+        String key = getKey(packageId, bundleId);
+        mCalls.put(key, call);
+        if (isCanceled(packageId, bundleId) && mCalls.remove(key, call)) {
+            call.cancel();
+        }
+    }
+
+    /**
+     * Unregisters a call of a bundle download, if it is still the current one
+     *
+     * @return False if the call was no longer registered (download canceled)
+     */
+    boolean unregisterCall(String packageId, String bundleId, Call call) {
+        return mCalls.remove(getKey(packageId, bundleId), call);
+    }
+
+    /**
+     * Cancels an ongoing bundle download, for all of its requesters. Downloads canceled between
+     * two calls (while fetching metadata for example) are not started again : the following call
+     * is canceled as soon as it is registered (see {@link #registerCall}), and download stages
+     * check {@link #isCanceled} before starting.
+     *
+     * @return True if there was such a download
+     */
+    boolean cancel(String packageId, String bundleId) {
+        String key = getKey(packageId, bundleId);
+        boolean canceled = false;
+        synchronized (this) {
+            Download download = mDownloads.get(key);
+            if (download != null) {
+                download.mCanceled = true;
+                canceled = true;
+            }
+        }
+        Call call = mCalls.remove(key);
+        if (call != null) {
+            call.cancel();
+        }
+        return canceled || call != null;
+    }
+
+    /** Checks whether an ongoing bundle download was canceled */
+    synchronized boolean isCanceled(String packageId, String bundleId) {
+        Download download = mDownloads.get(getKey(packageId, bundleId));
+        return download != null && download.mCanceled;
+    }
+
+    private List<DownloadCallback> complete(String key, Download download) {
+        DownloadProgress progress;
+        synchronized (this) {
+            mDownloads.remove(key);
+            progress = download.mProgress;
+        }
+        if (progress != null) {
+            progress.stop();
+        }
+        return download.mCallbacks;
+    }
+
+    private static String getKey(String packageId, String bundleId) {
+        return packageId + "/" + bundleId;
+    }
+
+    private static final class Download {
+        // Guarded by BundleDownloadManager instance, no longer modified once completed
+        private final List<DownloadCallback> mCallbacks = new ArrayList<>();
+        private final List<DownloadProgress.Listener> mProgressListeners =
+                new CopyOnWriteArrayList<>();
+        // Progress of the current attempt of the download, guarded by BundleDownloadManager
+        @Nullable private DownloadProgress mProgress;
+        // Guarded by BundleDownloadManager instance
+        private boolean mCanceled;
+    }
+}
@@ -0,0 +1,108 @@
+package io.livebundle;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.ReactInstanceManager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/** Detection of the format of bundle files, and of the JS engine they can be loaded by */
+final class BundleFormat {
+    // Hermes bytecode files start with this magic number (uint64, little endian)
+    private static final byte[] HERMES_BYTECODE_MAGIC = {
+        (byte) 0xC6, (byte) 0x1F, (byte) 0xBC, (byte) 0x03,
+        (byte) 0xC1, (byte) 0x03, (byte) 0x19, (byte) 0x1F
+    };
+
+    // Offset of the total file length (uint32, little endian) in Hermes bytecode file header,
+    // following magic number (8 bytes), bytecode version (4 bytes) and source hash (20 bytes)
+    private static final int HERMES_FILE_LENGTH_OFFSET = 32;
+
+    private BundleFormat() {}
+
+    /**
+     * Checks that a bundle file can be handed to a JSBundleLoader : the file must exist and not be
+     * empty, and if it is a Hermes bytecode bundle, its length must match the one recorded in its
+     * header (so that truncated bytecode bundles are caught before being loaded).
+     *
+     * @param bundleFile Bundle file to check
+     * @throws IOException If the bundle file is not valid
+     */
+    static void validate(File bundleFile) throws IOException {
+        if (!bundleFile.isFile() || bundleFile.length() == 0) {
+            throw new IOException("Bundle file is missing or empty : " + bundleFile);
+        }
+        if (isHermesBytecode(bundleFile)) {
+            byte[] header = new byte[HERMES_FILE_LENGTH_OFFSET + 4];
+            FileInputStream fin = new FileInputStream(bundleFile);
+            try {
+                int offset = 0;
+                while (offset < header.length) {
+                    int numBytesRead = fin.read(header, offset, header.length - offset);
+                    if (numBytesRead == -1) {
+                        throw new IOException("Truncated Hermes bytecode bundle : " + bundleFile);
+                    }
+                    offset += numBytesRead;
+                }
+            } finally {
+                fin.close();
+            }
+            long fileLength =
+                    (header[HERMES_FILE_LENGTH_OFFSET] & 0xFFL)
+                            | (header[HERMES_FILE_LENGTH_OFFSET + 1] & 0xFFL) << 8
+                            | (header[HERMES_FILE_LENGTH_OFFSET + 2] & 0xFFL) << 16
+                            | (header[HERMES_FILE_LENGTH_OFFSET + 3] & 0xFFL) << 24;
+            if (fileLength != bundleFile.length()) {
+                throw new IOException("Truncated Hermes bytecode bundle : " + bundleFile);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a bundle file is a precompiled Hermes bytecode bundle (rather than a plain JS
+     * bundle)
+     *
+     * @param bundleFile Bundle file to check
+     * @throws IOException
+     */
+    static boolean isHermesBytecode(File bundleFile) throws IOException {
+        byte[] header = new byte[HERMES_BYTECODE_MAGIC.length];
+        FileInputStream fin = new FileInputStream(bundleFile);
+        try {
+            int offset = 0;
+            while (offset < header.length) {
+                int numBytesRead = fin.read(header, offset, header.length - offset);
+                if (numBytesRead == -1) {
+                    return false;
+                }
+                offset += numBytesRead;
+            }
+        } finally {
+            fin.close();
+        }
+        for (int i = 0; i < header.length; i++) {
+            if (header[i] != HERMES_BYTECODE_MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the JS engine used by a ReactInstanceManager is Hermes
+     *
+     * @return True if Hermes, false if another engine, or null if it cannot be determined (older
+     *     React Native versions)
+     */
+    @Nullable
+    static Boolean isHermesEngine(ReactInstanceManager instanceManager) {
+        try {
+            String executorName = instanceManager.getJsExecutorName();
+            return executorName != null && executorName.contains("Hermes");
+        } catch (NoSuchMethodError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package io.livebundle;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Downloads the bundles of a package to the bundle store in the background, with a bounded
+ * number of concurrent downloads, so that installing any of these bundles later on is instant.
+ */
+final class BundlePrefetcher {
+    private static final String TAG = "LiveBundle";
+    private static final int MAX_CONCURRENT_DOWNLOADS = 2;
+    private static final float LOW_BATTERY_LEVEL = 0.2f;
+
+    interface Fetcher {
+        void fetch(String packageId, String bundleId, DownloadCallback callback);
+    }
+
+    interface Listener {
+        /**
+         * Called once all bundles have been processed
+         *
+         * @param fetchedBundleIds Ids of the bundles that are now in the bundle store
+         * @param error            First download error, or null if all bundles were fetched
+         */
+        void onComplete(List<String> fetchedBundleIds, @Nullable Exception error);
+    }
+
+    private final Fetcher mFetcher;
+    private final String mPackageId;
+    private final Queue<String> mPendingBundleIds;
+    private final Listener mListener;
+    private final List<String> mFetchedBundleIds = new ArrayList<>();
+    private int mActiveCount;
+    @Nullable private Exception mError;
+
+    BundlePrefetcher(
+            Fetcher fetcher, String packageId, List<String> bundleIds, Listener listener) {
+        mFetcher = fetcher;
+        mPackageId = packageId;
+        mPendingBundleIds = new ArrayDeque<>(bundleIds);
+        mListener = listener;
+    }
+
+    /** Starts prefetching */
+    void start() {
+        List<String> bundleIds = new ArrayList<>();
+        synchronized (this) {
+            if (mPendingBundleIds.isEmpty()) {
+                mListener.onComplete(mFetchedBundleIds, null);
+                return;
+            }
+            while (mActiveCount < MAX_CONCURRENT_DOWNLOADS && !mPendingBundleIds.isEmpty()) {
+                bundleIds.add(mPendingBundleIds.poll());
+                mActiveCount++;
+            }
+        }
+        for (String bundleId : bundleIds) {
+            fetch(bundleId);
+        }
+    }
+
+    private void fetch(final String bundleId) {
+        Log.d(TAG, "BundlePrefetcher fetching " + mPackageId + "/" + bundleId);
+        mFetcher.fetch(
+                mPackageId,
+                bundleId,
+                new DownloadCallback() {
+                    @Override
+                    public void onSuccess() {
+                        onFetchDone(bundleId, null);
+                    }
+
+                    @Override
+                    public void onFailure(String code, Exception e) {
+                        onFetchDone(bundleId, e);
+                    }
+                });
+    }
+
+    private void onFetchDone(String bundleId, @Nullable Exception error) {
+        String nextBundleId;
+        synchronized (this) {
+            if (error == null) {
+                mFetchedBundleIds.add(bundleId);
+            } else if (mError == null) {
+                mError = error;
+            }
+            nextBundleId = mPendingBundleIds.poll();
+            if (nextBundleId == null) {
+                mActiveCount--;
+                if (mActiveCount > 0) {
+                    return;
+                }
+            }
+        }
+        if (nextBundleId != null) {
+            fetch(nextBundleId);
+        } else {
+            mListener.onComplete(mFetchedBundleIds, mError);
+        }
+    }
+
+    /**
+     * Checks whether the device network allows prefetching
+     *
+     * @param requireUnmetered Whether prefetching is only allowed on unmetered networks
+     */
+    static boolean isNetworkSuitable(Context context, boolean requireUnmetered) {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return false;
+        }
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return false;
+        }
+        return !requireUnmetered || !connectivityManager.isActiveNetworkMetered();
+    }
+
+    /**
+     * Checks whether the device battery allows prefetching, that is if the device is charging, or
+     * if the battery is not low and battery saver is off
+     */
+    static boolean isBatterySuitable(Context context) {
+        Intent batteryStatus =
+                context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (batteryStatus == null) {
+            return true;
+        }
+        if (batteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0) {
+            return true;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            PowerManager powerManager =
+                    (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            if (powerManager != null && powerManager.isPowerSaveMode()) {
+                return false;
+            }
+        }
+        int level = batteryStatus.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = batteryStatus.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        return level < 0 || scale <= 0 || (float) level / scale > LOW_BATTERY_LEVEL;
+    }
+}
@@ -0,0 +1,436 @@
+package io.livebundle;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-device store of downloaded LiveBundle bundles, keyed by packageId/bundleId.
+ *
+ * <p>Each bundle is stored in its own directory (bundles/[packageId]/[bundleId]/LB-Bundle.js).
+ * Package and bundle ids are immutable once published, so a stored entry never has to be
+ * revalidated. The store is bounded by a byte budget and evicts least recently used entries
+ * when going over it. The last access time of an entry is tracked through the last modified
+ * time of its directory, so that recency survives process restarts.
+ *
+ * <p>Bundles are first written to a temporary file, which is synced to disk by the writer and
+ * then atomically renamed to the entry bundle file on commit. An entry bundle file is therefore
+ * always complete, even if the process gets killed while writing a bundle.
+ *
+ * <p>Entries whose bundle was verified against its published digest are marked with a digest
+ * file (LB-Bundle.js.sha256) next to the bundle file, so that they never have to be hashed again.
+ * Entries also record the variant of their bundle (platform, flavor and JS engine) and the branch
+ * of their package in a variant file (LB-Bundle.js.variant), so that the base of a delta update
+ * is only ever a bundle the patched bundle can be built from.
+ *
+ * <p>Entries are loaded from disk lazily, on first access (or {@link #load}), rather than when
+ * the store is created, which happens on the startup path of the application.
+ *
+ * <p>Other files shipped with a bundle (assets) are extracted to a files directory next to the
+ * bundle file. They are written to a temporary directory as well, renamed on commit. Their
+ * content is kept in an asset store shared by all bundles ({@link AssetStore}, assets/[digest]),
+ * files directories only holding hard links to it, so that assets shipped by several bundles are
+ * stored once. Entry sizes still count their linked assets, so the byte budget is conservative.
+ */
+final class BundleStore {
+    private static final String TAG = "LiveBundle";
+    private static final String STORE_DIR_NAME = "livebundle/bundles";
+    private static final String ASSETS_DIR_NAME = "livebundle/assets";
+    private static final String BUNDLE_FILE_NAME = "LB-Bundle.js";
+    private static final String TEMP_BUNDLE_FILE_NAME = "LB-Bundle.js.tmp";
+    private static final String DIGEST_FILE_NAME = "LB-Bundle.js.sha256";
+    private static final String VARIANT_FILE_NAME = "LB-Bundle.js.variant";
+    private static final String FILES_DIR_NAME = "files";
+    private static final String TEMP_FILES_DIR_NAME = "files.tmp";
+    private static final String UTF_8 = "UTF-8";
+    static final long DEFAULT_MAX_SIZE_BYTES = 100L * 1024 * 1024;
+
+    private static BundleStore sInstance;
+
+    private final File mFilesDir;
+    private final File mRootDir;
+    private final AssetStore mAssetStore;
+    // Access ordered, least recently used entry first
+    private final LinkedHashMap<String, Long> mEntrySizes =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private long mMaxSizeBytes = DEFAULT_MAX_SIZE_BYTES;
+    private long mSizeBytes;
+    @Nullable private String mPinnedKey;
+    private boolean mLoaded;
+
+    /** Returns the process wide store instance (it outlives React context recreation) */
+    static synchronized BundleStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BundleStore(context.getApplicationContext().getFilesDir());
+        }
+        return sInstance;
+    }
+
+    private BundleStore(File filesDir) {
+        mFilesDir = filesDir;
+        mRootDir = new File(filesDir, STORE_DIR_NAME);
+        mAssetStore = new AssetStore(new File(filesDir, ASSETS_DIR_NAME), new HardLinker());
+    }
+
+    /** Returns the store of the assets of all bundles */
+    AssetStore getAssetStore() {
+        return mAssetStore;
+    }
+
+    /** Loads the store entries from disk, if not loaded yet */
+    synchronized void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        // Single bundle file used by previous versions of LiveBundle, prior to the store
+        new File(mFilesDir, BUNDLE_FILE_NAME).delete();
+        loadEntries();
+    }
+
+    /** Sets the maximum number of bytes used by stored bundles, evicting entries if needed */
+    synchronized void setMaxSize(long maxSizeBytes) {
+        mMaxSizeBytes = maxSizeBytes;
+        if (mLoaded) {
+            trimToSize(null);
+        }
+    }
+
+    /**
+     * Returns the bundle file of a stored entry, or null if the entry is not in the store
+     * Accessing an entry marks it as the most recently used one.
+     */
+    @Nullable
+    synchronized File get(String packageId, String bundleId) {
+        load();
+        String key = key(packageId, bundleId);
+        if (mEntrySizes.get(key) == null) {
+            return null;
+        }
+        File bundleFile = getBundleFile(packageId, bundleId);
+        if (!bundleFile.isFile()) {
+            // Deleted behind our back (app storage cleared for example)
+            remove(packageId, bundleId);
+            return null;
+        }
+        getEntryDir(packageId, bundleId).setLastModified(System.currentTimeMillis());
+        return bundleFile;
+    }
+
+    /**
+     * Returns the bundle file of an entry if it is stored, without loading the store (nor
+     * marking the entry as the most recently used one). For the startup path of the application,
+     * which cannot afford to load the whole store : committed bundle files are always complete,
+     * so their presence is enough.
+     */
+    @Nullable
+    File peek(String packageId, String bundleId) {
+        File bundleFile = getBundleFile(packageId, bundleId);
+        return bundleFile.isFile() ? bundleFile : null;
+    }
+
+    /**
+     * Returns the ids of the most recently used entry of a bundle variant, preferably of a package
+     * of the same branch, as a [packageId, bundleId] array. Does not change the entry recency.
+     *
+     * @param variant Variant of the bundle (see {@link #setVariant})
+     * @param branch  Branch of the package of the bundle, or null if unknown
+     * @return The ids of the entry, or null if no entry has the same variant
+     */
+    @Nullable
+    synchronized String[] findMostRecentIds(String variant, @Nullable String branch) {
+        load();
+        List<String> keys = new ArrayList<>(mEntrySizes.keySet());
+        String sameVariantKey = null;
+        for (int i = keys.size() - 1; i >= 0; i--) {
+            String[] entryVariant = readVariant(new File(mRootDir, keys.get(i)));
+            if (entryVariant == null || !variant.equals(entryVariant[0])) {
+                continue;
+            }
+            if (branch == null || branch.equals(entryVariant[1])) {
+                return keys.get(i).split(File.separator, 2);
+            }
+            if (sameVariantKey == null) {
+                sameVariantKey = keys.get(i);
+            }
+        }
+        return sameVariantKey == null ? null : sameVariantKey.split(File.separator, 2);
+    }
+
+    /**
+     * Prepares a new store entry and returns the temporary file the bundle should be written to
+     * (and synced to disk). The entry is only visible once {@link #commit} has been called.
+     */
+    @NonNull
+    synchronized File create(String packageId, String bundleId) {
+        load();
+        File entryDir = getEntryDir(packageId, bundleId);
+        if (!entryDir.isDirectory()) {
+            entryDir.mkdirs();
+        }
+        return new File(entryDir, TEMP_BUNDLE_FILE_NAME);
+    }
+
+    /**
+     * Returns the temporary directory the other files of a new store entry should be extracted
+     * to, once {@link #create} has been called. The directory is only visible once {@link #commit}
+     * has been called.
+     */
+    @NonNull
+    synchronized File createFilesDir(String packageId, String bundleId) {
+        File tempFilesDir = new File(getEntryDir(packageId, bundleId), TEMP_FILES_DIR_NAME);
+        // Leftover of a previous attempt
+        deleteFilesDir(tempFilesDir);
+        tempFilesDir.mkdirs();
+        return tempFilesDir;
+    }
+
+    /**
+     * Returns the files directory of a stored entry, or null if the entry has no other files than
+     * its bundle file
+     */
+    @Nullable
+    synchronized File getFilesDir(String packageId, String bundleId) {
+        File filesDir = new File(getEntryDir(packageId, bundleId), FILES_DIR_NAME);
+        String[] children = filesDir.list();
+        return children == null || children.length == 0 ? null : filesDir;
+    }
+
+    /**
+     * Returns the paths of the files of a stored entry, relative to its files directory (see
+     * {@link #getFilesDir}), such as assets/[hash]/[name]. Empty if the entry has no other files
+     * than its bundle file (entries installed from a patch for example).
+     */
+    @NonNull
+    synchronized List<String> getFilePaths(String packageId, String bundleId) {
+        List<String> paths = new ArrayList<>();
+        addFilePaths(new File(getEntryDir(packageId, bundleId), FILES_DIR_NAME), "", paths);
+        return paths;
+    }
+
+    /**
+     * Adds a written entry to the store, evicting least recently used entries if needed
+     *
+     * @throws IOException If the temporary bundle file cannot be renamed to the entry bundle file
+     */
+    synchronized void commit(String packageId, String bundleId) throws IOException {
+        load();
+        File tempFilesDir = new File(getEntryDir(packageId, bundleId), TEMP_FILES_DIR_NAME);
+        if (tempFilesDir.isDirectory()) {
+            File filesDir = new File(getEntryDir(packageId, bundleId), FILES_DIR_NAME);
+            deleteFilesDir(filesDir);
+            BundleFiles.swap(tempFilesDir, filesDir);
+        }
+        BundleFiles.swap(
+                new File(getEntryDir(packageId, bundleId), TEMP_BUNDLE_FILE_NAME),
+                getBundleFile(packageId, bundleId));
+        String key = key(packageId, bundleId);
+        Long previousSize = mEntrySizes.remove(key);
+        if (previousSize != null) {
+            mSizeBytes -= previousSize;
+        }
+        long size = sizeOf(getEntryDir(packageId, bundleId));
+        mEntrySizes.put(key, size);
+        mSizeBytes += size;
+        getEntryDir(packageId, bundleId).setLastModified(System.currentTimeMillis());
+        trimToSize(key);
+    }
+
+    /**
+     * Marks a stored entry as verified against its published digest
+     *
+     * @param digest Digest of the entry bundle file, as a hex string
+     * @throws IOException If the digest file cannot be written
+     */
+    synchronized void markVerified(String packageId, String bundleId, String digest)
+            throws IOException {
+        File digestFile = new File(getEntryDir(packageId, bundleId), DIGEST_FILE_NAME);
+        FileOutputStream fout = new FileOutputStream(digestFile);
+        try {
+            fout.write(digest.getBytes("US-ASCII"));
+        } finally {
+            fout.close();
+        }
+    }
+
+    /**
+     * Records the variant of the bundle of a stored entry, and the branch of its package
+     *
+     * @param variant Variant of the bundle : its platform, flavor and JS engine
+     * @param branch  Branch of the package of the bundle, or null if unknown
+     * @throws IOException If the variant file cannot be written
+     */
+    synchronized void setVariant(
+            String packageId, String bundleId, String variant, @Nullable String branch)
+            throws IOException {
+        File variantFile = new File(getEntryDir(packageId, bundleId), VARIANT_FILE_NAME);
+        FileOutputStream fout = new FileOutputStream(variantFile);
+        try {
+            fout.write((variant + "\n" + (branch == null ? "" : branch)).getBytes(UTF_8));
+        } finally {
+            fout.close();
+        }
+    }
+
+    /** Checks whether a stored entry was verified against its published digest */
+    synchronized boolean isVerified(String packageId, String bundleId) {
+        return new File(getEntryDir(packageId, bundleId), DIGEST_FILE_NAME).isFile();
+    }
+
+    /** Removes an entry (complete or not) from the store */
+    synchronized void remove(String packageId, String bundleId) {
+        load();
+        Long size = mEntrySizes.remove(key(packageId, bundleId));
+        if (size != null) {
+            mSizeBytes -= size;
+        }
+        deleteFilesDir(getEntryDir(packageId, bundleId));
+    }
+
+    /**
+     * Pins an entry so that it is never evicted (used for the currently installed bundle, which
+     * React Native might need to read again, on reload for example). Pass null ids to unpin.
+     */
+    synchronized void pin(@Nullable String packageId, @Nullable String bundleId) {
+        mPinnedKey = packageId == null || bundleId == null ? null : key(packageId, bundleId);
+    }
+
+    private void trimToSize(@Nullable String keepKey) {
+        Iterator<Map.Entry<String, Long>> it = mEntrySizes.entrySet().iterator();
+        while (mSizeBytes > mMaxSizeBytes && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            String key = entry.getKey();
+            if (key.equals(keepKey) || key.equals(mPinnedKey)) {
+                continue;
+            }
+            Log.d(TAG, "BundleStore evicting " + key);
+            it.remove();
+            mSizeBytes -= entry.getValue();
+            deleteFilesDir(new File(mRootDir, key));
+        }
+    }
+
+    /**
+     * Deletes a directory holding links to stored assets (entry, or files directory), so that
+     * the assets that are no longer linked get deleted from the asset store
+     */
+    private void deleteFilesDir(File dir) {
+        if (dir.exists()) {
+            BundleFiles.deleteRecursive(dir);
+            mAssetStore.requestGarbageCollection();
+        }
+    }
+
+    private void loadEntries() {
+        List<File> entryDirs = new ArrayList<>();
+        File[] packageDirs = mRootDir.listFiles();
+        if (packageDirs == null) {
+            return;
+        }
+        for (File packageDir : packageDirs) {
+            File[] bundleDirs = packageDir.listFiles();
+            if (bundleDirs == null || bundleDirs.length == 0) {
+                BundleFiles.deleteRecursive(packageDir);
+                continue;
+            }
+            for (File bundleDir : bundleDirs) {
+                if (new File(bundleDir, BUNDLE_FILE_NAME).isFile()) {
+                    // Temporary file of an interrupted download (or patch) of a stored bundle
+                    new File(bundleDir, TEMP_BUNDLE_FILE_NAME).delete();
+                    deleteFilesDir(new File(bundleDir, TEMP_FILES_DIR_NAME));
+                    entryDirs.add(bundleDir);
+                } else {
+                    // Leftover of an interrupted download
+                    deleteFilesDir(bundleDir);
+                }
+            }
+        }
+        File[] sorted = entryDirs.toArray(new File[0]);
+        Arrays.sort(
+                sorted,
+                new Comparator<File>() {
+                    @Override
+                    public int compare(File a, File b) {
+                        long diff = a.lastModified() - b.lastModified();
+                        return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+                    }
+                });
+        for (File bundleDir : sorted) {
+            long size = sizeOf(bundleDir);
+            mEntrySizes.put(key(bundleDir.getParentFile().getName(), bundleDir.getName()), size);
+            mSizeBytes += size;
+        }
+        trimToSize(null);
+    }
+
+    /** Returns the variant and branch (or null) of an entry, or null if not recorded */
+    @Nullable
+    private static String[] readVariant(File entryDir) {
+        File variantFile = new File(entryDir, VARIANT_FILE_NAME);
+        if (!variantFile.isFile()) {
+            return null;
+        }
+        try {
+            String[] lines = new String(BundleFiles.readAll(variantFile), UTF_8).split("\n", 2);
+            String branch = lines.length < 2 || lines[1].isEmpty() ? null : lines[1];
+            return new String[] {lines[0], branch};
+        } catch (IOException e) {
+            Log.w(TAG, "BundleStore.readVariant", e);
+            return null;
+        }
+    }
+
+    private File getEntryDir(String packageId, String bundleId) {
+        return new File(mRootDir, key(packageId, bundleId));
+    }
+
+    private File getBundleFile(String packageId, String bundleId) {
+        return new File(getEntryDir(packageId, bundleId), BUNDLE_FILE_NAME);
+    }
+
+    private static void addFilePaths(File dir, String prefix, List<String> paths) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String path = prefix + child.getName();
+            if (child.isDirectory()) {
+                addFilePaths(child, path + "/", paths);
+            } else {
+                paths.add(path);
+            }
+        }
+    }
+
+    private static String key(String packageId, String bundleId) {
+        return packageId + File.separator + bundleId;
+    }
+
+    private static long sizeOf(File file) {
+        if (file.isFile()) {
+            return file.length();
+        }
+        long size = 0;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                size += sizeOf(child);
+            }
+        }
+        return size;
+    }
+}
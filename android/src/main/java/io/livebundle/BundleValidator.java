@@ -0,0 +1,111 @@
+package io.livebundle;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.ReactInstanceManager;
+import com.facebook.react.modules.systeminfo.ReactNativeVersion;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Pre-install validation of a stored bundle, run off the main thread before swapping the React
+ * Native JSBundleLoader. A bundle that cannot be loaded by the app is rejected while the current
+ * React context is still running, rather than after it was torn down, which then takes a second
+ * context recreation (reset) to recover from.
+ *
+ * <p>The bundle is checked for :
+ *
+ * <ul>
+ *   <li>integrity : it must match its published digest, if any (catches bundles corrupted on
+ *       disk since they were downloaded). Callers skip this check for bundles verified when
+ *       stored, as hashing a whole bundle is the costly part of the validation.
+ *   <li>format : see {@link BundleFormat#validate}
+ *   <li>engine : Hermes bytecode bundles can only be loaded by apps using Hermes
+ *   <li>React Native version : if the bundle declares the React Native version it was built
+ *       for, it must have the same major and minor version as the React Native version of the
+ *       app, as JS bundles are not compatible with the native code of other releases
+ * </ul>
+ */
+final class BundleValidator {
+    /** Thrown for bundles that are broken, and should be downloaded again */
+    static final class CorruptBundleException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        CorruptBundleException(String message) {
+            super(message);
+        }
+
+        CorruptBundleException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    private BundleValidator() {}
+
+    /**
+     * Validates a bundle before installing it
+     *
+     * @param bundleFile         Bundle file to validate
+     * @param digest             Published SHA-256 digest of the bundle (hex string), or null to
+     *                           skip the integrity check
+     * @param reactNativeVersion React Native version the bundle was built for, or null
+     * @param instanceManager    ReactInstanceManager the bundle is to be loaded by
+     * @throws CorruptBundleException If the bundle is broken
+     * @throws IOException            If the bundle is not compatible with the app
+     */
+    static void validate(
+            File bundleFile,
+            @Nullable String digest,
+            @Nullable String reactNativeVersion,
+            ReactInstanceManager instanceManager)
+            throws IOException {
+        try {
+            BundleFormat.validate(bundleFile);
+        } catch (IOException e) {
+            throw new CorruptBundleException(e);
+        }
+        if (digest != null && !digest.equalsIgnoreCase(BundleDigest.digest(bundleFile))) {
+            throw new CorruptBundleException("Bundle does not match its digest : " + bundleFile);
+        }
+        // Precompiled Hermes bytecode bundles can only be loaded by Hermes. Plain JS bundles can
+        // be loaded by any engine.
+        if (BundleFormat.isHermesBytecode(bundleFile)
+                && Boolean.FALSE.equals(BundleFormat.isHermesEngine(instanceManager))) {
+            throw new IOException(
+                    "Hermes bytecode bundle cannot be installed, app is not using Hermes");
+        }
+        if (reactNativeVersion != null && !isReactNativeVersionCompatible(reactNativeVersion)) {
+            throw new IOException(
+                    String.format(
+                            "Bundle built for React Native %s cannot be installed, app is using"
+                                    + " React Native %s",
+                            reactNativeVersion, getReactNativeVersion()));
+        }
+    }
+
+    /**
+     * Checks whether a bundle built for a given React Native version can be loaded by the app
+     *
+     * @param reactNativeVersion React Native version, as major.minor[.patch[-prerelease]]
+     */
+    private static boolean isReactNativeVersionCompatible(String reactNativeVersion) {
+        String[] bundleVersion = reactNativeVersion.split("[.-]");
+        Map<String, Object> appVersion = ReactNativeVersion.VERSION;
+        if (bundleVersion.length < 2 || appVersion == null) {
+            // Unknown versions are not checked
+            return true;
+        }
+        return bundleVersion[0].equals(String.valueOf(appVersion.get("major")))
+                && bundleVersion[1].equals(String.valueOf(appVersion.get("minor")));
+    }
+
+    /** Returns the React Native version of the app, as major.minor.patch */
+    private static String getReactNativeVersion() {
+        Map<String, Object> version = ReactNativeVersion.VERSION;
+        return version == null
+                ? "unknown"
+                : version.get("major") + "." + version.get("minor") + "." + version.get("patch");
+    }
+}
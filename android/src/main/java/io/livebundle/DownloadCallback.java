@@ -0,0 +1,15 @@
+package io.livebundle;
+
+/** Outcome of a bundle download to the bundle store */
+interface DownloadCallback {
+    /** Called once the bundle is available in the bundle store */
+    void onSuccess();
+
+    /**
+     * Called if the bundle could not be downloaded
+     *
+     * @param code Error code (E_BUNDLE_DOWNLOAD_ERROR or E_BUNDLE_DOWNLOAD_CANCELED)
+     * @param e    Cause
+     */
+    void onFailure(String code, Exception e);
+}
@@ -0,0 +1,189 @@
+package io.livebundle;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Tracks the progress of a bundle download (bytes done, total, throughput and ETA) and reports
+ * it to a listener. Reports are throttled, so that a listener forwarding them over the React
+ * Native bridge does not flood it : a report is emitted once either some time or some number of
+ * bytes have elapsed since the previous one, but never more often than a minimum interval (the
+ * final report is always emitted). While no bytes come in (stalled download), a report is still
+ * emitted periodically, so that throughput and ETA keep being refreshed, until the download is
+ * complete or stopped. Several streams can be tracked at once, for downloads split in segments
+ * downloaded in parallel.
+ */
+final class DownloadProgress implements DownloadTracker {
+    private static final long MIN_REPORT_INTERVAL_MS = 50;
+    private static final long REPORT_INTERVAL_MS = 200;
+    private static final long REPORT_BYTES = 64 * 1024;
+    private static final long STALL_REPORT_INTERVAL_MS = 1000;
+
+    interface Listener {
+        void onProgress(DownloadProgress progress);
+    }
+
+    private final String mPackageId;
+    private final String mBundleId;
+    private final Listener mListener;
+    private final long mStartTime = SystemClock.elapsedRealtime();
+    private long mBytesDone;
+    private long mResumedBytes;
+    private long mTransferTimeNs;
+    private long mBytesTotal = -1;
+    private long mLastReportTime;
+    private long mLastReportBytes;
+    private boolean mTicking;
+    private volatile boolean mStopped;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // Reports progress of stalled downloads
+    private final Runnable mTicker =
+            new Runnable() {
+                @Override
+                public void run() {
+                    if (mStopped) {
+                        return;
+                    }
+                    synchronized (DownloadProgress.this) {
+                        if (SystemClock.elapsedRealtime() - mLastReportTime
+                                >= STALL_REPORT_INTERVAL_MS) {
+                            report(true);
+                        }
+                    }
+                    mHandler.postDelayed(this, STALL_REPORT_INTERVAL_MS);
+                }
+            };
+
+    DownloadProgress(String packageId, String bundleId, Listener listener) {
+        mPackageId = packageId;
+        mBundleId = bundleId;
+        mListener = listener;
+    }
+
+    String getPackageId() {
+        return mPackageId;
+    }
+
+    String getBundleId() {
+        return mBundleId;
+    }
+
+    long getBytesDone() {
+        return mBytesDone;
+    }
+
+    /** Returns the total number of bytes to download, or -1 if unknown */
+    long getBytesTotal() {
+        return mBytesTotal;
+    }
+
+    /** Returns the time spent waiting for bytes from the downloaded stream, in ms */
+    synchronized long getTransferTimeMs() {
+        return mTransferTimeNs / 1000000;
+    }
+
+    /** Returns the average download throughput, in bytes per second */
+    long getBytesPerSecond() {
+        long elapsed = SystemClock.elapsedRealtime() - mStartTime;
+        return elapsed <= 0 ? 0 : (mBytesDone - mResumedBytes) * 1000 / elapsed;
+    }
+
+    /** Returns the estimated remaining download time in ms, or -1 if unknown */
+    long getEtaMs() {
+        long bytesPerSecond = getBytesPerSecond();
+        if (mBytesTotal < 0 || bytesPerSecond <= 0) {
+            return -1;
+        }
+        return Math.max(0, mBytesTotal - mBytesDone) * 1000 / bytesPerSecond;
+    }
+
+    @Override
+    public InputStream track(InputStream source, long bytesTotal) {
+        mBytesTotal = bytesTotal;
+        synchronized (this) {
+            if (!mTicking && !mStopped) {
+                mTicking = true;
+                mHandler.postDelayed(mTicker, STALL_REPORT_INTERVAL_MS);
+            }
+        }
+        return new FilterInputStream(source) {
+            @Override
+            public int read() throws IOException {
+                long start = System.nanoTime();
+                int b = super.read();
+                onBytesRead(b == -1 ? -1 : 1, System.nanoTime() - start);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                long start = System.nanoTime();
+                int numBytesRead = super.read(b, off, len);
+                onBytesRead(numBytesRead, System.nanoTime() - start);
+                return numBytesRead;
+            }
+        };
+    }
+
+    /**
+     * Accounts for bytes downloaded prior to tracking, when resuming an interrupted download
+     *
+     * @param resumedBytes Number of bytes already downloaded
+     */
+    void resumeFrom(long resumedBytes) {
+        mResumedBytes = resumedBytes;
+        mBytesDone += resumedBytes;
+        if (mBytesTotal >= 0) {
+            mBytesTotal += resumedBytes;
+        }
+    }
+
+    /** Reports final progress, once the download is complete */
+    void complete() {
+        synchronized (this) {
+            report(false);
+        }
+        stop();
+    }
+
+    /** Stops reporting progress (download complete, failed, or superseded by a retry) */
+    void stop() {
+        mStopped = true;
+        mHandler.removeCallbacks(mTicker);
+    }
+
+    private synchronized void onBytesRead(int numBytesRead, long transferTimeNs) {
+        // Summed over all tracked streams
+        mTransferTimeNs += transferTimeNs;
+        if (numBytesRead == -1) {
+            report(false);
+            return;
+        }
+        mBytesDone += numBytesRead;
+        long elapsed = SystemClock.elapsedRealtime() - mLastReportTime;
+        if (elapsed >= MIN_REPORT_INTERVAL_MS
+                && (elapsed >= REPORT_INTERVAL_MS
+                        || mBytesDone - mLastReportBytes >= REPORT_BYTES)) {
+            report(false);
+        }
+    }
+
+    /**
+     * Reports progress to the listener
+     *
+     * @param force Whether to report even if no bytes were read since the previous report
+     */
+    private void report(boolean force) {
+        if (!force && mLastReportTime != 0 && mBytesDone == mLastReportBytes) {
+            return;
+        }
+        mLastReportTime = SystemClock.elapsedRealtime();
+        mLastReportBytes = mBytesDone;
+        mListener.onProgress(this);
+    }
+}
@@ -0,0 +1,55 @@
+package io.livebundle;
+
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Links the files of the asset store into bundle files directories with hard links, so that a
+ * stored asset takes no additional space nor write per bundle shipping it. Files are copied
+ * instead if the file system does not support hard links. Android versions without {@link
+ * Os#link} (prior to Lollipop) cannot link files at all, the asset store is not used there.
+ */
+final class HardLinker implements AssetStore.FileLinker {
+    private static final String TAG = "LiveBundle";
+
+    @Override
+    public boolean canLink() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    @Override
+    public void link(File source, File link) throws IOException {
+        if (canLink()) {
+            try {
+                Os.link(source.getPath(), link.getPath());
+                return;
+            } catch (ErrnoException e) {
+                Log.w(TAG, "HardLinker.link", e);
+            }
+        }
+        FileInputStream fin = new FileInputStream(source);
+        try {
+            BundleFiles.write(fin, link, BundleInflater.obtainBuffer(), null);
+        } finally {
+            fin.close();
+        }
+    }
+
+    @Override
+    public int getLinkCount(File file) {
+        if (canLink()) {
+            try {
+                return (int) Os.stat(file.getPath()).st_nlink;
+            } catch (ErrnoException e) {
+                Log.w(TAG, "HardLinker.getLinkCount", e);
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,163 @@
+package io.livebundle;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Probes the candidate packager hosts of a live session (LAN address, tunnel, localhost through
+ * adb reverse ...) in parallel, and reports the first one whose packager replies to its status
+ * request, which is the one with the lowest latency. Probes of the other hosts are then canceled.
+ *
+ * <p>Probes have a short timeout, so that an unreachable host is reported in a couple of seconds
+ * rather than after the React Native bundle load timeout. They run on their own dispatcher, so
+ * that they are not queued behind ongoing bundle downloads, which would skew their latency.
+ */
+final class HostProbe {
+    private static final int PROBE_TIMEOUT_MS = 2000;
+    // Body of the packager /status response
+    private static final String PACKAGER_STATUS_RUNNING = "packager-status:running";
+
+    interface Listener {
+        /**
+         * Called with the first host whose packager is running
+         *
+         * @param host      Host, as host:port
+         * @param latencyMs Round trip time of its status request, in ms
+         */
+        void onHostFound(String host, long latencyMs);
+
+        /**
+         * Called if no host could be reached
+         *
+         * @param e Cause of the failure of the last probe
+         */
+        void onFailure(IOException e);
+    }
+
+    private final OkHttpClient mHttpClient;
+    private final List<String> mHosts;
+    private final List<Call> mCalls = new ArrayList<>();
+    private final AtomicInteger mRemainingProbes = new AtomicInteger();
+    private final AtomicBoolean mDone = new AtomicBoolean();
+    private Listener mListener;
+
+    /**
+     * @param httpClient Http client to derive the probe client from
+     * @param hosts      Candidate hosts, as host:port
+     */
+    HostProbe(OkHttpClient httpClient, List<String> hosts) {
+        mHttpClient =
+                httpClient
+                        .newBuilder()
+                        .dispatcher(new Dispatcher())
+                        .cache(null)
+                        .connectTimeout(PROBE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                        .readTimeout(PROBE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                        .callTimeout(PROBE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                        .build();
+        mHosts = hosts;
+    }
+
+    /**
+     * Starts probing all hosts
+     *
+     * @param listener Listener notified of the outcome of the probe
+     */
+    void start(Listener listener) {
+        mListener = listener;
+        mRemainingProbes.set(mHosts.size());
+        if (mHosts.isEmpty()) {
+            onProbeFailure(new IOException("No live session host"));
+            return;
+        }
+        for (String host : mHosts) {
+            HttpUrl url = HttpUrl.parse("http://" + host + "/status");
+            if (url == null) {
+                onProbeFailure(new IOException("Invalid live session host " + host));
+                continue;
+            }
+            Call call = mHttpClient.newCall(new Request.Builder().url(url).build());
+            synchronized (mCalls) {
+                mCalls.add(call);
+            }
+            call.enqueue(new ProbeCallback(host, SystemClock.elapsedRealtime()));
+        }
+    }
+
+    /** Cancels all probes, the listener is not notified */
+    void cancel() {
+        mDone.set(true);
+        cancelCalls();
+    }
+
+    private void cancelCalls() {
+        synchronized (mCalls) {
+            for (Call call : mCalls) {
+                call.cancel();
+            }
+        }
+    }
+
+    private void onProbeFailure(IOException e) {
+        if (mRemainingProbes.decrementAndGet() == 0 && mDone.compareAndSet(false, true)) {
+            mListener.onFailure(e);
+        }
+    }
+
+    private final class ProbeCallback implements Callback {
+        private final String mHost;
+        private final long mStartTime;
+
+        ProbeCallback(String host, long startTime) {
+            mHost = host;
+            mStartTime = startTime;
+        }
+
+        @Override
+        public void onResponse(@NonNull Call call, @NonNull Response response) {
+            long latencyMs = SystemClock.elapsedRealtime() - mStartTime;
+            try {
+                ResponseBody body = response.body();
+                if (!response.isSuccessful()
+                        || body == null
+                        || !PACKAGER_STATUS_RUNNING.equals(body.string().trim())) {
+                    throw new IOException(
+                            String.format(
+                                    "Packager not running on %s : %d %s",
+                                    mHost, response.code(), response.message()));
+                }
+            } catch (IOException e) {
+                onProbeFailure(e);
+                return;
+            } finally {
+                response.close();
+            }
+            if (mDone.compareAndSet(false, true)) {
+                cancelCalls();
+                mListener.onHostFound(mHost, latencyMs);
+            }
+        }
+
+        @Override
+        public void onFailure(@NonNull Call call, @NonNull IOException e) {
+            onProbeFailure(new IOException("Live session host " + mHost + " unreachable", e));
+        }
+    }
+}
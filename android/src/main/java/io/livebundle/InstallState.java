@@ -0,0 +1,76 @@
+package io.livebundle;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.Nullable;
+
+/**
+ * LiveBundle install state (installed bundle or started session), persisted so that it survives
+ * process death.
+ *
+ * <p>The state is kept as a single compact record ([flags]|[packageId]|[bundleId]) in its own
+ * shared preferences file, so that reading it on cold start only parses a tiny file. Writes are
+ * asynchronous (apply), they never block the calling thread on disk I/O.
+ */
+final class InstallState {
+    private static final String PREFS_NAME = "livebundle_state";
+    private static final String PREFS_STATE_KEY = "state";
+    private static final int FLAG_BUNDLE_INSTALLED = 1;
+    private static final int FLAG_SESSION_STARTED = 2;
+
+    @Nullable final String packageId;
+    @Nullable final String bundleId;
+    final boolean bundleInstalled;
+    final boolean sessionStarted;
+
+    InstallState(
+            @Nullable String packageId,
+            @Nullable String bundleId,
+            boolean bundleInstalled,
+            boolean sessionStarted) {
+        this.packageId = packageId;
+        this.bundleId = bundleId;
+        this.bundleInstalled = bundleInstalled;
+        this.sessionStarted = sessionStarted;
+    }
+
+    /** Reads the persisted state, defaulting to no bundle installed and no session started */
+    static InstallState load(Context context) {
+        String record = getPreferences(context).getString(PREFS_STATE_KEY, null);
+        String[] fields = record == null ? null : record.split("\\|", -1);
+        if (fields == null || fields.length != 3) {
+            return new InstallState(null, null, false, false);
+        }
+        int flags;
+        try {
+            flags = Integer.parseInt(fields[0]);
+        } catch (NumberFormatException e) {
+            return new InstallState(null, null, false, false);
+        }
+        return new InstallState(
+                fields[1].isEmpty() ? null : fields[1],
+                fields[2].isEmpty() ? null : fields[2],
+                (flags & FLAG_BUNDLE_INSTALLED) != 0,
+                (flags & FLAG_SESSION_STARTED) != 0);
+    }
+
+    /** Persists this state, asynchronously */
+    void save(Context context) {
+        int flags =
+                (bundleInstalled ? FLAG_BUNDLE_INSTALLED : 0)
+                        | (sessionStarted ? FLAG_SESSION_STARTED : 0);
+        String record =
+                flags
+                        + "|"
+                        + (packageId == null ? "" : packageId)
+                        + "|"
+                        + (bundleId == null ? "" : bundleId);
+        getPreferences(context).edit().putString(PREFS_STATE_KEY, record).apply();
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
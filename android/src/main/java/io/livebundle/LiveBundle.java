@@ -1,9 +1,12 @@
 package io.livebundle;
 
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
@@ -13,40 +16,66 @@ import androidx.annotation.Nullable;
 import com.facebook.react.ReactInstanceManager;
 import com.facebook.react.ReactNativeHost;
 import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Dynamic;
 import com.facebook.react.bridge.JSBundleLoader;
 import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
-import com.facebook.react.devsupport.BundleDownloader;
-import com.facebook.react.devsupport.interfaces.DevBundleDownloadListener;
+import com.facebook.react.bridge.ReadableType;
+import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.devsupport.interfaces.DevOptionHandler;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
 
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 public class LiveBundle extends ReactContextBaseJavaModule {
-    private static final String JS_LIVEBUNDLE_FILE_NAME = "LB-Bundle.js";
-    private static final String JS_LIVEBUNDLE_ZIP_FILE_NAME = "LB-Bundle.zip";
-    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final String PARTS_DIR_NAME = "livebundle/parts";
+    private static final int SEGMENTS_BUFFER_SIZE = 64 * 1024;
     private static final String E_BUNDLE_DOWNLOAD_ERROR = "E_BUNDLE_DOWNLOAD_ERROR";
+    private static final String E_BUNDLE_DOWNLOAD_CANCELED = "E_BUNDLE_DOWNLOAD_CANCELED";
     private static final String E_LIVEBUNDLE_ERROR = "E_LIVEBUNDLE_ERROR";
+    private static final String E_BUNDLE_VALIDATION_ERROR = "E_BUNDLE_VALIDATION_ERROR";
+    private static final String E_SESSION_HOST_UNREACHABLE = "E_SESSION_HOST_UNREACHABLE";
     private static final String PREFS_DEBUG_SERVER_HOST_KEY = "debug_http_host";
     private static final String PREFS_DEBUG_SERVER_HOST_KEY_BACKUP = "debug_http_host_backup";
     private static final String TAG = "LiveBundle";
+    private static final String EVENT_DOWNLOAD_PROGRESS = "LiveBundleDownloadProgress";
+    // Response code of requests forced to the cache, when the resource is not cached
+    private static final int HTTP_GATEWAY_TIMEOUT = 504;
+    private static final int HTTP_NOT_MODIFIED = 304;
+    private static final int HTTP_NOT_FOUND = 404;
+    // Makes cached responses stale, so that they get revalidated by a conditional request
+    private static final CacheControl REVALIDATE =
+            new CacheControl.Builder().maxAge(0, TimeUnit.SECONDS).build();
 
     // Keep the following variables static so that they are preserved
     // after recreating react context (which recreates native modules)
@@ -60,12 +89,38 @@ public class LiveBundle extends ReactContextBaseJavaModule {
     private static String sStorageUrl;
     private static String sStorageUrlSuffix;
     private static ReactNativeHost sReactNativeHost;
+    private static long sBundleStoreMaxSize = BundleStore.DEFAULT_MAX_SIZE_BYTES;
+    private static boolean sDeltaUpdatesEnabled;
+    private static boolean sInstancePrewarmEnabled;
+    private static boolean sSegmentedDownloadsEnabled;
+    private static boolean sInstallStateRestored;
+    private static boolean sWarmedUp;
+    // ReactInstanceManager whose developer menu has the LiveBundle entry
+    private static WeakReference<ReactInstanceManager> sDevOptionInstanceManager;
 
-    private final File mJSLiveBundleFile;
-    private final File mJSLiveBundleZipFile;
+    private final BundleStore mBundleStore;
+    private final File mPartsDir;
 
-    private final BundleDownloader mBundleDownloader;
+    private final BundleDownloadManager mDownloadManager;
+    private final PackageCatalog mPackageCatalog;
     private final SharedPreferences mPreferences;
+    // Ongoing probe of live session hosts, if any
+    @Nullable private HostProbe mHostProbe;
+    // Forwards the progress of the downloads requested by this module to JS
+    private final DownloadProgress.Listener mProgressListener =
+            new DownloadProgress.Listener() {
+                @Override
+                public void onProgress(DownloadProgress progress) {
+                    WritableMap params = Arguments.createMap();
+                    params.putString("packageId", progress.getPackageId());
+                    params.putString("bundleId", progress.getBundleId());
+                    params.putDouble("bytesDone", progress.getBytesDone());
+                    params.putDouble("bytesTotal", progress.getBytesTotal());
+                    params.putDouble("bytesPerSecond", progress.getBytesPerSecond());
+                    params.putDouble("etaMs", progress.getEtaMs());
+                    emitEvent(EVENT_DOWNLOAD_PROGRESS, params);
+                }
+            };
 
     /**
      * LiveBundle constructor Called by React Native during Native Modules initialization phase
@@ -78,34 +133,76 @@ public class LiveBundle extends ReactContextBaseJavaModule {
         super(reactContext);
 
         Log.d(TAG, "ctor");
+        // This runs on the React context creation path, so anything costly (disk I/O, http
+        // client creation) is deferred to a background thread (see initialize), or to first use
+        final long initStartTime = SystemClock.elapsedRealtime();
 
-        // Create file handles
-        mJSLiveBundleZipFile =
-                new File(
-                        reactContext.getApplicationContext().getFilesDir(),
-                        JS_LIVEBUNDLE_ZIP_FILE_NAME);
-        mJSLiveBundleFile =
-                new File(
-                        reactContext.getApplicationContext().getFilesDir(),
-                        JS_LIVEBUNDLE_FILE_NAME);
-
-        // Create bundle downloader (to download LiveBundle bundles)
-        // To make things easier, we just use the downloader shipped with React Native, but could
-        // write a custom one instead at some point
-        OkHttpClient client =
-                new OkHttpClient.Builder()
-                        .connectTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
-                        .readTimeout(0, TimeUnit.MILLISECONDS)
-                        .writeTimeout(0, TimeUnit.MILLISECONDS)
-                        .build();
-        mBundleDownloader = new BundleDownloader(client);
+        // Get access to the store of downloaded bundles
+        mBundleStore = BundleStore.getInstance(reactContext);
+        mBundleStore.setMaxSize(sBundleStoreMaxSize);
+        // Deduplicate the assets extracted from zip bundles across all stored bundles, unless
+        // stored assets cannot be linked (they would then only be stored twice)
+        AssetStore assetStore = mBundleStore.getAssetStore();
+        BundleInflater.setAssetStore(assetStore.canLink() ? assetStore : null);
+        // Partially downloaded bundles are kept in cache dir, they can be resumed as long as the
+        // system doesn't reclaim them
+        mPartsDir = new File(reactContext.getApplicationContext().getCacheDir(), PARTS_DIR_NAME);
+
+        // Get access to the process wide download manager (to download LiveBundle bundles)
+        mDownloadManager = BundleDownloadManager.getInstance(reactContext);
+
+        // Get access to the local catalog of packages (loaded on first use)
+        mPackageCatalog = PackageCatalog.getInstance(reactContext);
 
-        // Get access to Shared Preferences
+        // Get access to Shared Preferences (loaded asynchronously by Android)
         mPreferences =
                 PreferenceManager.getDefaultSharedPreferences(reactContext.getApplicationContext());
 
-        // Add "LiveBundle" entry to React Native developer menu
-        getInstanceManager()
+        LiveBundleMetrics.record(
+                LiveBundleMetrics.PHASE_MODULE_INIT, SystemClock.elapsedRealtime() - initStartTime);
+    }
+
+    @Override
+    public void initialize() {
+        super.initialize();
+        registerDevOption();
+        if (sWarmedUp) {
+            return;
+        }
+        sWarmedUp = true;
+        // Warm up what downloads and sessions need, once per process, off the startup path
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        long warmupStartTime = SystemClock.elapsedRealtime();
+                        mBundleStore.load();
+                        // Assets of the bundles evicted, removed or replaced since the last
+                        // collection, if any (a no-op most of the time)
+                        mBundleStore.getAssetStore().collectGarbageIfRequested();
+                        mDownloadManager.getHttpClient();
+                        backupDebugServerHost();
+                        LiveBundleMetrics.record(
+                                LiveBundleMetrics.PHASE_MODULE_WARMUP,
+                                SystemClock.elapsedRealtime() - warmupStartTime);
+                    }
+                });
+    }
+
+    /** Adds "LiveBundle" entry to React Native developer menu, once per React instance */
+    private void registerDevOption() {
+        // When installing a bundle in a pre-warmed React instance, this module belongs to the
+        // new instance, which is not the current one yet
+        ReactInstanceManager pendingInstanceManager =
+                ReactInstanceSwitcher.getPendingInstanceManager();
+        ReactInstanceManager instanceManager =
+                pendingInstanceManager != null ? pendingInstanceManager : getInstanceManager();
+        if (sDevOptionInstanceManager != null
+                && sDevOptionInstanceManager.get() == instanceManager) {
+            return;
+        }
+        sDevOptionInstanceManager = new WeakReference<>(instanceManager);
+        instanceManager
                 .getDevSupportManager()
                 .addCustomDevOption(
                         "LiveBundle",
@@ -115,10 +212,14 @@ public class LiveBundle extends ReactContextBaseJavaModule {
                                 launchUI(null, null);
                             }
                         });
+    }
 
-        // Backup a reference to the JSBundleLoader instance currently used by React Native
-        // so that we can revert back to it when resetting app state to what it was prior
-        // to switching to LiveBundle context (package or session)
+    /**
+     * Backups a reference to the JSBundleLoader instance currently used by React Native so that
+     * we can revert back to it when resetting app state to what it was prior to switching to
+     * LiveBundle context (package or session). Should be called before switching.
+     */
+    private void backupInitialBundleLoader() {
         try {
             // Only backup if not currently in LiveBundle context (package or session)
             if (!LiveBundle.sBundleInstalled && !LiveBundle.sSessionStarted) {
@@ -128,13 +229,29 @@ public class LiveBundle extends ReactContextBaseJavaModule {
                 bundleLoaderField.setAccessible(true);
                 LiveBundle.sInitialJsBundleLoader =
                         (JSBundleLoader) bundleLoaderField.get(instanceManager);
+            } else if (LiveBundle.sInitialJsBundleLoader == null && LiveBundle.sBundleInstalled) {
+                // Cold started from the installed bundle (see getJSBundleFile), so the current
+                // JSBundleLoader is the LiveBundle one. Use the one of the application bundle.
+                Method bundleAssetNameMethod =
+                        ReactNativeHost.class.getDeclaredMethod("getBundleAssetName");
+                bundleAssetNameMethod.setAccessible(true);
+                LiveBundle.sInitialJsBundleLoader =
+                        JSBundleLoader.createAssetLoader(
+                                getReactApplicationContext(),
+                                "assets://" + bundleAssetNameMethod.invoke(sReactNativeHost),
+                                false);
             }
         } catch (Exception ignored) {
         }
+    }
 
-        // Backup the current debug http host used by React Native to connect to local packager
-        // so that we can revert back to it when resetting app state to what it was prior
-        // to establishing a LiveBundle live session (which alter debug http host url)
+    /**
+     * Backups the current debug http host used by React Native to connect to local packager so
+     * that we can revert back to it when resetting app state to what it was prior to establishing
+     * a LiveBundle live session (which alter debug http host url). Should be called before
+     * starting a session.
+     */
+    private synchronized void backupDebugServerHost() {
         String curDebugServerHost = mPreferences.getString(PREFS_DEBUG_SERVER_HOST_KEY, null);
         String curDebugServerHostBackup =
                 mPreferences.getString(PREFS_DEBUG_SERVER_HOST_KEY_BACKUP, null);
@@ -144,7 +261,7 @@ public class LiveBundle extends ReactContextBaseJavaModule {
                     .putString(
                             PREFS_DEBUG_SERVER_HOST_KEY_BACKUP,
                             curDebugServerHost == null ? "null" : curDebugServerHost)
-                    .commit();
+                    .apply();
         }
     }
 
@@ -175,49 +292,121 @@ public class LiveBundle extends ReactContextBaseJavaModule {
         }
     }
 
-    public static ReactNativeHost getReactNativeHost() {
-        return LiveBundle.sReactNativeHost;
+    /**
+     * Sets the maximum disk space used to keep downloaded bundles around. Least recently used
+     * bundles are evicted when going over this size. Defaults to 100 MB.
+     *
+     * @param maxSizeBytes Maximum size of the bundle store, in bytes
+     */
+    public static void setBundleStoreMaxSize(long maxSizeBytes) {
+        LiveBundle.sBundleStoreMaxSize = maxSizeBytes;
     }
 
     /**
-     * Unzips the current LiveBundle zipped bundle (LB-Bundle.zip) to target file (LB-Bundle.js)
+     * Enables delta updates. When enabled, bundles are first looked up in the storage as a patch
+     * against the most recently used bundle of the same variant (platform, flavor and JS engine,
+     * preferably of a package of the same branch) stored on the device
+     * (packages/[packageId]/patches/[basePackageId]/[baseBundleId]/[bundleId]), falling back to
+     * downloading the whole bundle if there is no such patch. Bundles without any stored bundle
+     * of the same variant are downloaded whole right away. Disabled by default.
      *
-     * @throws IOException
+     * @param enabled Whether to enable delta updates
      */
-    private void unzipLiveBundleZipFile() throws IOException {
-        Log.d(TAG, "unzipLiveBundleZipFile()");
-        FileInputStream fileStream = null;
-        BufferedInputStream bufferedStream = null;
-        ZipInputStream zipStream = null;
-        try {
-            fileStream = new FileInputStream(mJSLiveBundleZipFile);
-            bufferedStream = new BufferedInputStream(fileStream);
-            zipStream = new ZipInputStream(bufferedStream);
-
-            byte[] buffer = new byte[1024 * 8];
-            ZipEntry entry = zipStream.getNextEntry();
-            FileOutputStream fout = new FileOutputStream(mJSLiveBundleFile);
-            try {
-                int numBytesRead;
-                while ((numBytesRead = zipStream.read(buffer)) != -1) {
-                    fout.write(buffer, 0, numBytesRead);
-                }
-            } finally {
-                fout.close();
-            }
+    public static void setDeltaUpdatesEnabled(boolean enabled) {
+        LiveBundle.sDeltaUpdatesEnabled = enabled;
+    }
 
-            long time = entry.getTime();
-            if (time > 0) {
-                mJSLiveBundleFile.setLastModified(time);
-            }
-        } finally {
-            try {
-                if (zipStream != null) zipStream.close();
-                if (bufferedStream != null) bufferedStream.close();
-                if (fileStream != null) fileStream.close();
-            } catch (Exception ignored) {
-            }
+    /**
+     * Enables pre-warmed bundle installs. When enabled, installing a bundle creates a second React
+     * instance from the new bundle in the background, and only switches the application to it
+     * once its React context is initialized, rather than tearing down the current React context
+     * first. This hides bundle load and initialization time, at the cost of the memory of two
+     * React instances during the install. Disabled by default.
+     *
+     * @param enabled Whether to enable pre-warmed bundle installs
+     */
+    public static void setInstancePrewarmEnabled(boolean enabled) {
+        LiveBundle.sInstancePrewarmEnabled = enabled;
+    }
+
+    /**
+     * Enables segmented downloads. When enabled, large bundles are downloaded in segments (byte
+     * ranges) over several parallel connections, which makes better use of high latency links
+     * than a single connection. The number of segments depends on the bundle size, published in
+     * package metadata (size field) or retrieved with a HEAD request. Small bundles, and bundles
+     * served by storages that do not support range requests, are downloaded over a single
+     * connection. Disabled by default.
+     *
+     * @param enabled Whether to enable segmented downloads
+     */
+    public static void setSegmentedDownloadsEnabled(boolean enabled) {
+        LiveBundle.sSegmentedDownloadsEnabled = enabled;
+    }
+
+    /**
+     * Registers the decoder of a bundle format, so that bundles published in this format (format
+     * field of the bundle in package metadata) can be downloaded. Can also be used to replace the
+     * decoder of a built-in format (zip, gzip or br) with a faster, native one.
+     *
+     * @param format        Format name
+     * @param fileExtension File extension of the bundles of this format in the storage
+     * @param decoder       Decoder of the format
+     */
+    public static void registerBundleDecoder(
+            String format, String fileExtension, BundleDecoder decoder) {
+        BundleDecoders.register(format, fileExtension, decoder);
+    }
+
+    /**
+     * Returns the bundle file the application should start from, or null to start from the
+     * application bundle. This restores the LiveBundle state persisted before the process died,
+     * so that the application cold starts in the bundle installed last (if it is still stored),
+     * without having to download and install it again. The bundle file is resolved from the
+     * persisted install state alone, the bundle store is only loaded later on, in the background.
+     * Should be called from the getJSBundleFile method of the ReactNativeHost, once LiveBundle is
+     * initialized :
+     *
+     * <pre>
+     * protected String getJSBundleFile() {
+     *     String bundleFile = LiveBundle.getJSBundleFile(getApplication());
+     *     return bundleFile != null ? bundleFile : super.getJSBundleFile();
+     * }
+     * </pre>
+     *
+     * @param context Application context
+     * @return The absolute path of the installed bundle file, or null
+     */
+    @Nullable
+    public static synchronized String getJSBundleFile(Context context) {
+        if (!sInstallStateRestored) {
+            sInstallStateRestored = true;
+            InstallState state = InstallState.load(context);
+            LiveBundle.sPackageId = state.packageId;
+            LiveBundle.sBundleId = state.bundleId;
+            LiveBundle.sBundleInstalled = state.bundleInstalled;
+            // The debug server host of a live session is persisted by React Native, restore the
+            // session along with it so that it can be reset
+            LiveBundle.sSessionStarted = state.sessionStarted;
+        }
+        if (!sBundleInstalled || sPackageId == null || sBundleId == null) {
+            return null;
         }
+        BundleStore bundleStore = BundleStore.getInstance(context);
+        File bundleFile = bundleStore.peek(sPackageId, sBundleId);
+        if (bundleFile == null) {
+            // Evicted, or storage cleared
+            LiveBundle.sPackageId = null;
+            LiveBundle.sBundleId = null;
+            LiveBundle.sBundleInstalled = false;
+            saveInstallState(context);
+            return null;
+        }
+        bundleStore.pin(sPackageId, sBundleId);
+        return bundleFile.getAbsolutePath();
+    }
+
+    public static ReactNativeHost getReactNativeHost() {
+        return LiveBundle.sReactNativeHost;
     }
 
     /**
@@ -255,6 +444,18 @@ public class LiveBundle extends ReactContextBaseJavaModule {
         constants.put("IS_BUNDLE_INSTALLED", sBundleInstalled);
         constants.put("IS_SESSION_STARTED", sSessionStarted);
         constants.put("IS_INITIAL_LAUNCH", sIsInitialLaunch);
+        // Directory of the assets shipped with the installed bundle, if any, and their paths
+        // within it. Assets that were not shipped are resolved from the storage.
+        File filesDir =
+                sBundleInstalled && sPackageId != null && sBundleId != null
+                        ? mBundleStore.getFilesDir(sPackageId, sBundleId)
+                        : null;
+        constants.put("BUNDLE_FILES_DIR", filesDir == null ? null : filesDir.getAbsolutePath());
+        constants.put(
+                "BUNDLE_FILES",
+                filesDir == null
+                        ? Collections.emptyList()
+                        : mBundleStore.getFilePaths(sPackageId, sBundleId));
         return constants;
     }
 
@@ -279,12 +480,71 @@ public class LiveBundle extends ReactContextBaseJavaModule {
     }
 
     /**
-     * Starts a LiveBundle session We don't need to resolve the promise as this method recreate the
+     * Starts a LiveBundle session, connecting to the packager of the fastest reachable session
+     * host. Candidate hosts are probed in parallel (see HostProbe), and the React context is only
+     * recreated once a host replied, otherwise the promise is rejected with
+     * E_SESSION_HOST_UNREACHABLE. We don't need to resolve the promise as this method recreate the
      * React context, so the caller context will be lost once this method completes
+     *
+     * @param serverHosts Candidate packager hosts of the session, as host:port. Either an array of
+     *                    hosts, or a single host (string), as taken by previous versions of
+     *                    LiveBundle.
      */
     @ReactMethod
-    public void launchLiveSession(String serverHost, final Promise promise) {
+    public void launchLiveSession(Dynamic serverHosts, final Promise promise) {
         Log.d(TAG, "launchLiveSession()");
+        List<String> hosts = new ArrayList<>();
+        if (serverHosts.getType() == ReadableType.String) {
+            hosts.add(serverHosts.asString());
+        } else if (serverHosts.getType() == ReadableType.Array) {
+            ReadableArray hostsArray = serverHosts.asArray();
+            for (int i = 0; i < hostsArray.size(); i++) {
+                hosts.add(hostsArray.getString(i));
+            }
+        } else {
+            promise.reject(
+                    E_LIVEBUNDLE_ERROR,
+                    new IllegalArgumentException("Expected a host, or an array of hosts"));
+            return;
+        }
+        if (mHostProbe != null) {
+            mHostProbe.cancel();
+        }
+        final long probeStartTime = SystemClock.elapsedRealtime();
+        final int traceCookie =
+                LiveBundleTrace.beginAsyncSection(LiveBundleTrace.LAUNCH_LIVE_SESSION);
+        mHostProbe = new HostProbe(mDownloadManager.getHttpClient(), hosts);
+        mHostProbe.start(
+                new HostProbe.Listener() {
+                    @Override
+                    public void onHostFound(String host, long latencyMs) {
+                        Log.d(TAG, "launchLiveSession() " + host + " in " + latencyMs + "ms");
+                        LiveBundleMetrics.record(
+                                LiveBundleMetrics.PHASE_HOST_PROBE,
+                                SystemClock.elapsedRealtime() - probeStartTime);
+                        startLiveSession(host, promise);
+                        LiveBundleTrace.endAsyncSection(
+                                LiveBundleTrace.LAUNCH_LIVE_SESSION, traceCookie);
+                    }
+
+                    @Override
+                    public void onFailure(IOException e) {
+                        Log.e(TAG, "launchLiveSession", e);
+                        LiveBundleTrace.endAsyncSection(
+                                LiveBundleTrace.LAUNCH_LIVE_SESSION, traceCookie);
+                        promise.reject(E_SESSION_HOST_UNREACHABLE, e);
+                    }
+                });
+    }
+
+    /**
+     * Starts a LiveBundle session connected to the packager of a given host
+     *
+     * @param serverHost Packager host, as host:port
+     */
+    private void startLiveSession(String serverHost, final Promise promise) {
+        backupInitialBundleLoader();
+        backupDebugServerHost();
         mPreferences.edit().putString(PREFS_DEBUG_SERVER_HOST_KEY, serverHost).apply();
 
         // Set current JSBundleLoader of ReactInstanceManager instance to null so that it will use
@@ -297,6 +557,7 @@ public class LiveBundle extends ReactContextBaseJavaModule {
             bundleLoaderField.setAccessible(true);
             bundleLoaderField.set(instanceManager, null);
             LiveBundle.sSessionStarted = true;
+            saveInstallState(getReactApplicationContext());
         } catch (Exception e) {
             Log.e(TAG, "launchLiveSession", e);
             promise.reject(E_LIVEBUNDLE_ERROR, e);
@@ -310,10 +571,15 @@ public class LiveBundle extends ReactContextBaseJavaModule {
                         new Runnable() {
                             @Override
                             public void run() {
+                                LiveBundleTrace.beginSection(
+                                        LiveBundleTrace.RECREATE_REACT_CONTEXT);
                                 try {
+                                    measureContextReady(instanceManager);
                                     instanceManager.recreateReactContextInBackground();
                                 } catch (Exception e) {
                                     promise.reject(E_LIVEBUNDLE_ERROR, e);
+                                } finally {
+                                    LiveBundleTrace.endSection();
                                 }
                             }
                         });
@@ -329,80 +595,1268 @@ public class LiveBundle extends ReactContextBaseJavaModule {
     public void downloadBundle(
             final String packageId, final String bundleId, final Promise promise) {
         Log.d(TAG, "downloadBundle()");
-        final BundleDownloader.BundleInfo bundleInfo = new BundleDownloader.BundleInfo();
-        // Initiate download
-        mBundleDownloader.downloadBundleFromURL(
-                new DevBundleDownloadListener() {
+        final int traceCookie = LiveBundleTrace.beginAsyncSection(LiveBundleTrace.DOWNLOAD_BUNDLE);
+        fetchBundle(
+                packageId,
+                bundleId,
+                new DownloadCallback() {
                     @Override
                     public void onSuccess() {
+                        LiveBundleTrace.endAsyncSection(
+                                LiveBundleTrace.DOWNLOAD_BUNDLE, traceCookie);
+                        // Update current packageId/bundleId
+                        LiveBundle.sPackageId = packageId;
+                        LiveBundle.sBundleId = bundleId;
+                        // Resolve promise, we're done with download !
+                        promise.resolve(null);
+                    }
+
+                    @Override
+                    public void onFailure(String code, Exception e) {
+                        LiveBundleTrace.endAsyncSection(
+                                LiveBundleTrace.DOWNLOAD_BUNDLE, traceCookie);
+                        promise.reject(code, e);
+                    }
+                });
+    }
+
+    /**
+     * Makes a bundle available in the bundle store, downloading it if needed. Joins the ongoing
+     * download of the bundle, if any.
+     *
+     * @param packageId The id of the package containing the bundle
+     * @param bundleId  The id of the bundle
+     */
+    private void fetchBundle(
+            final String packageId, final String bundleId, DownloadCallback callback) {
+        mDownloadManager.download(
+                packageId,
+                bundleId,
+                new BundleDownloadManager.Task() {
+                    @Override
+                    public void run(DownloadCallback callback) {
+                        startBundleDownload(packageId, bundleId, callback);
+                    }
+                },
+                callback,
+                mProgressListener);
+    }
+
+    private void startBundleDownload(
+            final String packageId, final String bundleId, final DownloadCallback callback) {
+        // Bundles are immutable, so if the bundle was already downloaded and verified, we're done
+        final File bundleFile = mBundleStore.get(packageId, bundleId);
+        if (bundleFile != null && mBundleStore.isVerified(packageId, bundleId)) {
+            Log.d(TAG, "startBundleDownload() store hit");
+            callback.onSuccess();
+            return;
+        }
+
+        getBundleInfo(
+                packageId,
+                bundleId,
+                new BundleInfoCallback() {
+                    @Override
+                    public void onBundleInfo(BundleInfo bundleInfo) {
+                        if (rejectIfCanceled(packageId, bundleId, callback)) {
+                            return;
+                        }
+                        String digest = bundleInfo.digest;
+                        if (bundleFile != null) {
+                            if (digest == null || verifyStoredBundle(packageId, bundleId, digest)) {
+                                Log.d(TAG, "startBundleDownload() store hit");
+                                callback.onSuccess();
+                                return;
+                            }
+                            mBundleStore.remove(packageId, bundleId);
+                        }
+
+                        // If enabled, try to rebuild the bundle from a patch against the most
+                        // recently used stored bundle of the same variant (preferably of the
+                        // same branch), rather than downloading the whole bundle. Patches are
+                        // only published between bundles of the same variant.
+                        String[] baseIds =
+                                sDeltaUpdatesEnabled && bundleInfo.variant != null
+                                        ? mBundleStore.findMostRecentIds(
+                                                bundleInfo.variant, bundleInfo.branch)
+                                        : null;
+                        if (baseIds != null) {
+                            downloadBundlePatch(
+                                    packageId,
+                                    bundleId,
+                                    baseIds[0],
+                                    baseIds[1],
+                                    bundleInfo,
+                                    callback);
+                        } else {
+                            downloadFullBundle(packageId, bundleId, bundleInfo, callback);
+                        }
+                    }
+                });
+    }
+
+    /** Bundle properties published in its package metadata */
+    private static final class BundleInfo {
+        // SHA-256 digest of the bundle (hex string), or null if not published
+        @Nullable final String digest;
+        // Format the bundle is stored in (see BundleDecoders)
+        final String format;
+        // Size of the stored bundle file in bytes, or -1 if not published
+        final long size;
+        // React Native version the bundle was built for, or null if not published
+        @Nullable final String reactNativeVersion;
+        // Platform, flavor and JS engine of the bundle, or null if the metadata is unavailable
+        @Nullable final String variant;
+        // Branch of the package, or null if not published
+        @Nullable final String branch;
+
+        BundleInfo(
+                @Nullable String digest,
+                String format,
+                long size,
+                @Nullable String reactNativeVersion,
+                @Nullable String variant,
+                @Nullable String branch) {
+            this.digest = digest;
+            this.format = format;
+            this.size = size;
+            this.reactNativeVersion = reactNativeVersion;
+            this.variant = variant;
+            this.branch = branch;
+        }
+    }
+
+    private interface BundleInfoCallback {
+        void onBundleInfo(BundleInfo bundleInfo);
+    }
+
+    /**
+     * Looks up the properties of a bundle in the metadata of its package, which is usually
+     * cached :
+     *
+     * <ul>
+     *   <li>sha256 : SHA-256 digest of the bundle. Bundles without a published digest, or whose
+     *       package metadata cannot be fetched, are not verified.
+     *   <li>format : format the bundle is stored in (zip, gzip or br). Bundles in a format that
+     *       is not supported (or not published) are downloaded as zip, which is always published
+     *       for compatibility.
+     *   <li>size : size of the stored bundle file (in its format), in bytes. Used to split the
+     *       download in segments.
+     *   <li>reactNativeVersion : React Native version the bundle was built for. Bundles built for
+     *       another React Native release than the one of the app are not installed.
+     *   <li>platform, dev and engine : variant of the bundle, along with the branch of the
+     *       package. Delta updates are only attempted against a stored bundle of the same variant.
+     * </ul>
+     *
+     * @param packageId The id of the package containing the bundle
+     * @param bundleId  The id of the bundle
+     */
+    private void getBundleInfo(
+            String packageId, final String bundleId, final BundleInfoCallback callback) {
+        fetchMetadata(
+                String.format("packages/%s/metadata.json", packageId),
+                true,
+                new Callback() {
+                    @Override
+                    public void onResponse(@NonNull Call call, @NonNull Response response) {
+                        String digest = null;
+                        String format = BundleDecoders.FORMAT_ZIP;
+                        long size = -1;
+                        String reactNativeVersion = null;
+                        String variant = null;
+                        String branch = null;
+                        try {
+                            ResponseBody body = response.body();
+                            if (response.isSuccessful() && body != null) {
+                                JSONObject metadata = new JSONObject(body.string());
+                                branch = metadata.optString("branch", null);
+                                JSONArray bundles = metadata.getJSONArray("bundles");
+                                for (int i = 0; i < bundles.length(); i++) {
+                                    JSONObject bundle = bundles.getJSONObject(i);
+                                    if (bundleId.equals(bundle.optString("id"))) {
+                                        digest = bundle.optString("sha256", null);
+                                        String bundleFormat = bundle.optString("format", null);
+                                        if (bundleFormat != null
+                                                && BundleDecoders.isSupported(bundleFormat)) {
+                                            format = bundleFormat;
+                                        }
+                                        // Size of the published format, unknown for the zip
+                                        // fallback of an unsupported format
+                                        if (bundleFormat == null || format.equals(bundleFormat)) {
+                                            size = bundle.optLong("size", -1);
+                                        }
+                                        reactNativeVersion =
+                                                bundle.optString("reactNativeVersion", null);
+                                        variant = getVariant(bundle);
+                                    }
+                                }
+                            }
+                        } catch (Exception e) {
+                            Log.w(TAG, "getBundleInfo", e);
+                        } finally {
+                            response.close();
+                        }
+                        callback.onBundleInfo(
+                                new BundleInfo(
+                                        digest, format, size, reactNativeVersion, variant, branch));
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                        Log.w(TAG, "getBundleInfo", e);
+                        callback.onBundleInfo(
+                                new BundleInfo(
+                                        null, BundleDecoders.FORMAT_ZIP, -1, null, null, null));
+                    }
+                });
+    }
+
+    /** Returns the variant of a bundle published in package metadata : platform/flavor/engine */
+    private static String getVariant(JSONObject bundle) {
+        return bundle.optString("platform")
+                + "/"
+                + (bundle.optBoolean("dev") ? "dev" : "prod")
+                + "/"
+                + bundle.optString("engine", "js");
+    }
+
+    /**
+     * Commits a downloaded bundle to its store entry, along with what is known about it : whether
+     * it was verified against its published digest, and its variant
+     *
+     * @throws IOException If the bundle cannot be committed
+     */
+    private void commitBundle(String packageId, String bundleId, BundleInfo bundleInfo)
+            throws IOException {
+        mBundleStore.commit(packageId, bundleId);
+        if (bundleInfo.digest != null) {
+            mBundleStore.markVerified(packageId, bundleId, bundleInfo.digest);
+        }
+        if (bundleInfo.variant != null) {
+            mBundleStore.setVariant(packageId, bundleId, bundleInfo.variant, bundleInfo.branch);
+        }
+    }
+
+    /**
+     * Verifies a stored bundle that was never verified (stored before its digest was published,
+     * or by a previous version of LiveBundle), marking it as verified if it matches its digest
+     *
+     * @return Whether the stored bundle matches its digest
+     */
+    private boolean verifyStoredBundle(String packageId, String bundleId, String digest) {
+        File bundleFile = mBundleStore.get(packageId, bundleId);
+        try {
+            if (bundleFile != null && digest.equalsIgnoreCase(BundleDigest.digest(bundleFile))) {
+                mBundleStore.markVerified(packageId, bundleId, digest);
+                return true;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "verifyStoredBundle", e);
+        }
+        return false;
+    }
+
+    /**
+     * Downloads a bundle and decodes it to its store entry
+     *
+     * @param packageId  The id of the package containing the bundle to download
+     * @param bundleId   The id of the bundle to download
+     * @param bundleInfo Published bundle format, size, and digest to verify the bundle against
+     */
+    private void downloadFullBundle(
+            String packageId,
+            String bundleId,
+            BundleInfo bundleInfo,
+            DownloadCallback callback) {
+        if (sSegmentedDownloadsEnabled) {
+            downloadSegmentedBundle(packageId, bundleId, bundleInfo, callback);
+        } else {
+            downloadFullBundle(packageId, bundleId, bundleInfo, callback, 1);
+        }
+    }
+
+    /**
+     * Downloads a bundle in segments over parallel connections (see SegmentedDownload) if it is
+     * large enough, then decodes it to its store entry. The bundle size is the published one, or
+     * the one returned by a HEAD request. Falls back to a single connection download if the
+     * bundle is too small, or if the storage does not support range requests.
+     *
+     * @param packageId  The id of the package containing the bundle to download
+     * @param bundleId   The id of the bundle to download
+     * @param bundleInfo Published bundle format, size, and digest to verify the bundle against
+     */
+    private void downloadSegmentedBundle(
+            final String packageId,
+            final String bundleId,
+            final BundleInfo bundleInfo,
+            final DownloadCallback callback) {
+        Log.d(TAG, "downloadSegmentedBundle()");
+        if (rejectIfCanceled(packageId, bundleId, callback)) {
+            return;
+        }
+        final String bundleFileName =
+                bundleId + BundleDecoders.getFileExtension(bundleInfo.format);
+        final Request request =
+                new Request.Builder()
+                        .url(
+                                getStorageUrl(
+                                        String.format(
+                                                "packages/%s/%s", packageId, bundleFileName)))
+                        .cacheControl(BundleDownloadManager.NO_STORE)
+                        .build();
+        if (bundleInfo.size >= 0) {
+            startSegmentedDownload(
+                    packageId, bundleId, bundleInfo, request, bundleInfo.size, callback);
+            return;
+        }
+        final Call headCall =
+                mDownloadManager
+                        .getHttpClient()
+                        .newCall(SegmentedDownload.newSizeRequest(request));
+        mDownloadManager.registerCall(packageId, bundleId, headCall);
+        headCall.enqueue(
+                new Callback() {
+                    @Override
+                    public void onResponse(@NonNull Call call, @NonNull Response response) {
+                        long size;
                         try {
-                            // All bundles are zipped. Unzip the bundle to target final file
-                            // location ...
-                            LiveBundle.this.unzipLiveBundleZipFile();
-                            // ... and trash  the zip file
-                            mJSLiveBundleZipFile.delete();
-                            // Update current packageId/bundleId
-                            LiveBundle.sPackageId = packageId;
-                            LiveBundle.sBundleId = bundleId;
-                            // Resolve promise, we're done with download !
-                            promise.resolve(null);
+                            size = SegmentedDownload.getSize(response);
+                        } finally {
+                            response.close();
+                        }
+                        if (!mDownloadManager.unregisterCall(packageId, bundleId, call)) {
+                            rejectDownload(call, new IOException("Canceled"), callback);
+                            return;
+                        }
+                        startSegmentedDownload(
+                                packageId, bundleId, bundleInfo, request, size, callback);
+                    }
 
+                    @Override
+                    public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                        Log.w(TAG, "downloadSegmentedBundle", e);
+                        if (!mDownloadManager.unregisterCall(packageId, bundleId, call)) {
+                            rejectDownload(call, e, callback);
+                            return;
+                        }
+                        downloadFullBundle(packageId, bundleId, bundleInfo, callback, 1);
+                    }
+                });
+    }
+
+    private void startSegmentedDownload(
+            final String packageId,
+            final String bundleId,
+            final BundleInfo bundleInfo,
+            Request request,
+            long size,
+            final DownloadCallback callback) {
+        if (rejectIfCanceled(packageId, bundleId, callback)) {
+            return;
+        }
+        if (SegmentedDownload.getSegmentCount(size) < 2) {
+            downloadFullBundle(packageId, bundleId, bundleInfo, callback, 1);
+            return;
+        }
+        if (!mPartsDir.isDirectory()) {
+            mPartsDir.mkdirs();
+        }
+        final File segmentsFile =
+                new File(
+                        mPartsDir,
+                        packageId
+                                + "_"
+                                + bundleId
+                                + BundleDecoders.getFileExtension(bundleInfo.format)
+                                + ".segments");
+        final DownloadProgress progress = mDownloadManager.createProgress(packageId, bundleId);
+        SegmentedDownload segmentedDownload =
+                new SegmentedDownload(
+                        mDownloadManager.getHttpClient(), request, size, segmentsFile, progress);
+        // Segments are canceled along with the first one
+        final Call firstCall = segmentedDownload.getCalls().get(0);
+        mDownloadManager.registerCall(packageId, bundleId, firstCall);
+        final long requestStartTime = SystemClock.elapsedRealtime();
+        SegmentedDownload.Listener listener =
+                new SegmentedDownload.Listener() {
+                    @Override
+                    public void onComplete() {
+                        long downloadTime = SystemClock.elapsedRealtime();
+                        mDownloadManager.unregisterCall(packageId, bundleId, firstCall);
+                        try {
+                            progress.complete();
+                            String digest = bundleInfo.digest;
+                            MessageDigest messageDigest =
+                                    digest == null ? null : BundleDigest.create();
+                            File target = mBundleStore.create(packageId, bundleId);
+                            InputStream source =
+                                    new BufferedInputStream(
+                                            new FileInputStream(segmentsFile),
+                                            SEGMENTS_BUFFER_SIZE);
+                            LiveBundleTrace.beginSection(LiveBundleTrace.INFLATE);
+                            try {
+                                BundleDecoders.getDecoder(bundleInfo.format)
+                                        .decode(
+                                                source,
+                                                target,
+                                                mBundleStore.createFilesDir(packageId, bundleId),
+                                                messageDigest);
+                            } finally {
+                                source.close();
+                                LiveBundleTrace.endSection();
+                            }
+                            if (digest != null) {
+                                BundleDigest.verify(messageDigest, digest);
+                            }
+                            LiveBundleMetrics.record(
+                                    LiveBundleMetrics.PHASE_TRANSFER,
+                                    downloadTime - requestStartTime);
+                            LiveBundleMetrics.record(
+                                    LiveBundleMetrics.PHASE_INFLATE,
+                                    SystemClock.elapsedRealtime() - downloadTime);
+                            commitBundle(packageId, bundleId, bundleInfo);
+                            callback.onSuccess();
                         } catch (Exception e) {
-                            promise.reject(E_BUNDLE_DOWNLOAD_ERROR, e);
+                            mBundleStore.remove(packageId, bundleId);
+                            callback.onFailure(E_BUNDLE_DOWNLOAD_ERROR, e);
+                        } finally {
+                            segmentsFile.delete();
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(IOException e) {
+                        segmentsFile.delete();
+                        if (!mDownloadManager.unregisterCall(packageId, bundleId, firstCall)) {
+                            rejectDownload(firstCall, e, callback);
+                            return;
+                        }
+                        Log.w(TAG, "downloadSegmentedBundle() falling back", e);
+                        downloadFullBundle(packageId, bundleId, bundleInfo, callback, 1);
+                    }
+                };
+        try {
+            segmentedDownload.start(listener);
+        } catch (IOException e) {
+            listener.onFailure(e);
+        }
+    }
+
+    /**
+     * Downloads a bundle and decodes it to its store entry. Downloads interrupted by network or
+     * server errors are automatically retried with exponential backoff (see
+     * DownloadRetryPolicy), resuming from the bytes already downloaded.
+     *
+     * @param packageId  The id of the package containing the bundle to download
+     * @param bundleId   The id of the bundle to download
+     * @param bundleInfo Published bundle format, and digest to verify the bundle against
+     * @param attempt    Download attempt number, starting at 1
+     */
+    private void downloadFullBundle(
+            final String packageId,
+            final String bundleId,
+            final BundleInfo bundleInfo,
+            final DownloadCallback callback,
+            final int attempt) {
+        Log.d(TAG, "downloadFullBundle() attempt " + attempt);
+        if (rejectIfCanceled(packageId, bundleId, callback)) {
+            return;
+        }
+        // Bundles in formats other than zip are stored with the file extension of their format
+        String bundleFileName = bundleId + BundleDecoders.getFileExtension(bundleInfo.format);
+        final ResumableDownload resumableDownload =
+                new ResumableDownload(mPartsDir, packageId + "_" + bundleFileName);
+        final Request request =
+                resumableDownload
+                        .prepare(
+                                new Request.Builder()
+                                        .url(
+                                                getStorageUrl(
+                                                        String.format(
+                                                                "packages/%s/%s",
+                                                                packageId, bundleFileName))))
+                        .cacheControl(BundleDownloadManager.NO_STORE)
+                        .build();
+        final Call downloadCall = mDownloadManager.getTransferClient().newCall(request);
+        mDownloadManager.registerCall(packageId, bundleId, downloadCall);
+        // Initiate download
+        final long requestStartTime = SystemClock.elapsedRealtime();
+        downloadCall.enqueue(
+                new Callback() {
+                    @Override
+                    public void onResponse(@NonNull Call call, @NonNull Response response) {
+                        long responseTime = SystemClock.elapsedRealtime();
+                        try {
+                            resumableDownload.checkResponse(response);
+                            ResponseBody body = response.body();
+                            // Decode the bundle to its store entry while it is being
+                            // downloaded. Storages can also serve bundles with a compressed
+                            // Content-Encoding, which then takes precedence.
+                            DownloadProgress progress =
+                                    mDownloadManager.createProgress(packageId, bundleId);
+                            InputStream source =
+                                    resumableDownload.open(
+                                            response,
+                                            progress.track(
+                                                    body.byteStream(), body.contentLength()));
+                            progress.resumeFrom(resumableDownload.getResumedBytes());
+                            String encoding =
+                                    BundleDecoders.fromContentEncoding(
+                                            response.header("Content-Encoding"));
+                            BundleDecoder decoder =
+                                    BundleDecoders.getDecoder(
+                                            encoding != null ? encoding : bundleInfo.format);
+                            // The bundle digest is computed while it is being decoded
+                            String digest = bundleInfo.digest;
+                            MessageDigest messageDigest =
+                                    digest == null ? null : BundleDigest.create();
+                            // Assets shipped in zip bundles are extracted along with the bundle
+                            File target = mBundleStore.create(packageId, bundleId);
+                            // Includes the transfer, as the bundle is decoded while streamed
+                            LiveBundleTrace.beginSection(LiveBundleTrace.INFLATE);
+                            try {
+                                decoder.decode(
+                                        source,
+                                        target,
+                                        mBundleStore.createFilesDir(packageId, bundleId),
+                                        messageDigest);
+                            } finally {
+                                source.close();
+                                LiveBundleTrace.endSection();
+                            }
+                            if (digest != null) {
+                                BundleDigest.verify(messageDigest, digest);
+                            }
+                            progress.complete();
+                            recordDownloadMetrics(requestStartTime, responseTime, progress);
+                            commitBundle(packageId, bundleId, bundleInfo);
+                            resumableDownload.discard();
+                            mDownloadManager.unregisterCall(packageId, bundleId, call);
+                            callback.onSuccess();
+                        } catch (Exception e) {
+                            mBundleStore.remove(packageId, bundleId);
+                            onDownloadError(call, response, e);
+                        } finally {
+                            response.close();
                         }
                     }
 
                     @Override
-                    public void onProgress(
-                            @Nullable final String status,
-                            @Nullable final Integer done,
-                            @Nullable final Integer total) {
-                        // Unused. Not sure it can be leveraged anyway given that the bundle is not
-                        // downloaded from metro packager, so unsure if it reports progress (if it
-                        // does would be nice to handle so that we can report download progress on
-                        // LiveBundle download screen)
+                    public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                        onDownloadError(call, null, e);
                     }
 
+                    private void onDownloadError(
+                            final Call call, @Nullable Response response, Exception e) {
+                        if (!DownloadRetryPolicy.shouldRetry(attempt, call, response, e)) {
+                            resumableDownload.discard();
+                            mDownloadManager.unregisterCall(packageId, bundleId, call);
+                            rejectDownload(call, e, callback);
+                            return;
+                        }
+                        long backoffMs = DownloadRetryPolicy.getDelayMs(attempt);
+                        Log.w(TAG, "downloadFullBundle() retrying in " + backoffMs + "ms", e);
+                        // The failed call stays registered until the retry is started, so that
+                        // the download can still be canceled while waiting
+                        new Handler(Looper.getMainLooper())
+                                .postDelayed(
+                                        new Runnable() {
+                                            @Override
+                                            public void run() {
+                                                if (call.isCanceled()) {
+                                                    resumableDownload.discard();
+                                                    rejectDownload(
+                                                            call,
+                                                            new IOException("Canceled"),
+                                                            callback);
+                                                } else {
+                                                    downloadFullBundle(
+                                                            packageId,
+                                                            bundleId,
+                                                            bundleInfo,
+                                                            callback,
+                                                            attempt + 1);
+                                                }
+                                            }
+                                        },
+                                        backoffMs);
+                    }
+                });
+    }
+
+    /**
+     * Downloads the patch of a bundle against a stored base bundle, and applies it to rebuild
+     * the bundle in its store entry. Falls back to a full download if there is no such patch in
+     * the storage or if it cannot be applied.
+     *
+     * @param packageId     The id of the package containing the bundle to download
+     * @param bundleId      The id of the bundle to download
+     * @param basePackageId The id of the package containing the base bundle
+     * @param baseBundleId  The id of the base bundle
+     * @param bundleInfo    Published bundle format, and digest to verify the bundle against
+     */
+    private void downloadBundlePatch(
+            final String packageId,
+            final String bundleId,
+            final String basePackageId,
+            final String baseBundleId,
+            final BundleInfo bundleInfo,
+            final DownloadCallback callback) {
+        Log.d(TAG, "downloadBundlePatch()");
+        if (rejectIfCanceled(packageId, bundleId, callback)) {
+            return;
+        }
+        final Request request =
+                new Request.Builder()
+                        .url(
+                                getStorageUrl(
+                                        String.format(
+                                                "packages/%s/patches/%s/%s/%s",
+                                                packageId,
+                                                basePackageId,
+                                                baseBundleId,
+                                                bundleId)))
+                        .cacheControl(BundleDownloadManager.NO_STORE)
+                        .build();
+        final Call downloadCall = mDownloadManager.getTransferClient().newCall(request);
+        mDownloadManager.registerCall(packageId, bundleId, downloadCall);
+        final long requestStartTime = SystemClock.elapsedRealtime();
+        downloadCall.enqueue(
+                new Callback() {
                     @Override
-                    public void onFailure(final Exception e) {
+                    public void onResponse(@NonNull Call call, @NonNull Response response) {
+                        long responseTime = SystemClock.elapsedRealtime();
+                        boolean patched = false;
+                        try {
+                            ResponseBody body = response.body();
+                            File baseFile = mBundleStore.get(basePackageId, baseBundleId);
+                            if (response.isSuccessful() && body != null && baseFile != null) {
+                                DownloadProgress progress =
+                                        mDownloadManager.createProgress(packageId, bundleId);
+                                String digest = bundleInfo.digest;
+                                MessageDigest messageDigest =
+                                        digest == null ? null : BundleDigest.create();
+                                LiveBundleTrace.beginSection(LiveBundleTrace.PATCH);
+                                try {
+                                    BundlePatcher.apply(
+                                            progress.track(
+                                                    body.byteStream(), body.contentLength()),
+                                            baseFile,
+                                            mBundleStore.create(packageId, bundleId),
+                                            messageDigest);
+                                } finally {
+                                    LiveBundleTrace.endSection();
+                                }
+                                if (digest != null) {
+                                    BundleDigest.verify(messageDigest, digest);
+                                }
+                                progress.complete();
+                                recordDownloadMetrics(requestStartTime, responseTime, progress);
+                                commitBundle(packageId, bundleId, bundleInfo);
+                                patched = true;
+                            }
+                        } catch (Exception e) {
+                            Log.w(TAG, "downloadBundlePatch", e);
+                            mBundleStore.remove(packageId, bundleId);
+                        } finally {
+                            response.close();
+                            mDownloadManager.unregisterCall(packageId, bundleId, call);
+                        }
+                        onPatchDownloadDone(call, patched);
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                        Log.w(TAG, "downloadBundlePatch", e);
+                        mDownloadManager.unregisterCall(packageId, bundleId, call);
+                        onPatchDownloadDone(call, false);
+                    }
+
+                    private void onPatchDownloadDone(Call call, boolean patched) {
+                        if (patched) {
+                            callback.onSuccess();
+                        } else if (call.isCanceled()) {
+                            rejectDownload(call, new IOException("Canceled"), callback);
+                        } else {
+                            downloadFullBundle(packageId, bundleId, bundleInfo, callback);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Prefetches all the bundles of a package (for the current platform and JS engine) to the
+     * bundle store, in the background, so that installing any of them later on is instant.
+     * Resolves to true once the bundles are stored, or to false if prefetching was skipped
+     * because of device constraints.
+     *
+     * @param packageId The id (UUID v4) of the package to prefetch
+     * @param options   Optional constraints : requireUnmeteredNetwork and requireBatteryNotLow
+     *                  (both default to true)
+     */
+    @ReactMethod
+    public void prefetchPackage(
+            final String packageId, @Nullable ReadableMap options, final Promise promise) {
+        Log.d(TAG, "prefetchPackage()");
+        Context context = getReactApplicationContext().getApplicationContext();
+        boolean requireUnmetered = getBoolean(options, "requireUnmeteredNetwork", true);
+        boolean requireBatteryNotLow = getBoolean(options, "requireBatteryNotLow", true);
+        if (!BundlePrefetcher.isNetworkSuitable(context, requireUnmetered)
+                || (requireBatteryNotLow && !BundlePrefetcher.isBatterySuitable(context))) {
+            Log.d(TAG, "prefetchPackage() skipped, device constraints not met");
+            promise.resolve(false);
+            return;
+        }
+
+        final Boolean isHermes = BundleFormat.isHermesEngine(getInstanceManager());
+        final String hostEngine = isHermes == null ? null : (isHermes ? "hermes" : "jsc");
+        final long requestStartTime = SystemClock.elapsedRealtime();
+        fetchMetadata(
+                String.format("packages/%s/metadata.json", packageId),
+                true,
+                new Callback() {
+                    @Override
+                    public void onResponse(@NonNull Call call, @NonNull Response response) {
+                        List<String> bundleIds = new ArrayList<>();
+                        try {
+                            ResponseBody body = response.body();
+                            if (!response.isSuccessful() || body == null) {
+                                throw new IOException(
+                                        String.format(
+                                                "Package metadata request failed : %d %s",
+                                                response.code(), response.message()));
+                            }
+                            JSONArray bundles =
+                                    new JSONObject(body.string()).getJSONArray("bundles");
+                            LiveBundleMetrics.record(
+                                    LiveBundleMetrics.PHASE_METADATA_FETCH,
+                                    SystemClock.elapsedRealtime() - requestStartTime);
+                            // Same selection as on JS side : bundles precompiled for the
+                            // host JS engine are preferred over plain JS bundles of the
+                            // same flavor, bundles for another engine are skipped
+                            boolean[] hasEngineBundle = new boolean[2];
+                            List<JSONObject> candidates = new ArrayList<>();
+                            for (int i = 0; i < bundles.length(); i++) {
+                                JSONObject bundle = bundles.getJSONObject(i);
+                                String engine = bundle.optString("engine", null);
+                                if ("android".equals(bundle.optString("platform"))
+                                        && (engine == null || engine.equals(hostEngine))) {
+                                    candidates.add(bundle);
+                                    if (engine != null) {
+                                        hasEngineBundle[bundle.optBoolean("dev") ? 1 : 0] = true;
+                                    }
+                                }
+                            }
+                            for (JSONObject bundle : candidates) {
+                                if (!bundle.has("engine")
+                                        && hasEngineBundle[bundle.optBoolean("dev") ? 1 : 0]) {
+                                    continue;
+                                }
+                                bundleIds.add(bundle.getString("id"));
+                            }
+                        } catch (Exception e) {
+                            promise.reject(E_BUNDLE_DOWNLOAD_ERROR, e);
+                            return;
+                        } finally {
+                            response.close();
+                        }
+                        prefetchBundles(packageId, bundleIds, promise);
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull Call call, @NonNull IOException e) {
                         promise.reject(E_BUNDLE_DOWNLOAD_ERROR, e);
                     }
-                },
-                mJSLiveBundleZipFile,
-                String.format(
-                        "%s/packages/%s/%s%s",
-                        sStorageUrl,
+                });
+    }
+
+    /**
+     * Gets the metadata of a package or session, as a JSON string. Resolves right away with the
+     * cached copy of the metadata, if any. Packages are immutable once published, so a cached
+     * package metadata is never requested again, while a cached session metadata is revalidated
+     * in the background (conditional request using its ETag), for the next call.
+     *
+     * @param type Either PACKAGE or SESSION
+     * @param id   The id of the package or session
+     */
+    @ReactMethod
+    public void getMetadata(String type, String id, final Promise promise) {
+        Log.d(TAG, "getMetadata()");
+        final boolean isPackage = "PACKAGE".equals(type);
+        final long requestStartTime = SystemClock.elapsedRealtime();
+        fetchMetadata(
+                String.format("%s/%s/metadata.json", isPackage ? "packages" : "sessions", id),
+                isPackage,
+                new Callback() {
+                    @Override
+                    public void onResponse(@NonNull Call call, @NonNull Response response) {
+                        try {
+                            ResponseBody body = response.body();
+                            if (!response.isSuccessful() || body == null) {
+                                throw new IOException(
+                                        String.format(
+                                                "getMetadata request failed : %d %s",
+                                                response.code(), response.message()));
+                            }
+                            String metadata = body.string();
+                            LiveBundleMetrics.record(
+                                    LiveBundleMetrics.PHASE_METADATA_FETCH,
+                                    SystemClock.elapsedRealtime() - requestStartTime);
+                            promise.resolve(metadata);
+                            if (isPackage) {
+                                addToPackageCatalog(metadata);
+                            }
+                        } catch (Exception e) {
+                            promise.reject(E_LIVEBUNDLE_ERROR, e);
+                        } finally {
+                            response.close();
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                        promise.reject(E_LIVEBUNDLE_ERROR, e);
+                    }
+                });
+    }
+
+    /** Adds a package to the package catalog, given its metadata */
+    private void addToPackageCatalog(String metadata) {
+        try {
+            mPackageCatalog.addAll(Collections.singletonList(new JSONObject(metadata)));
+        } catch (Exception e) {
+            Log.w(TAG, "addToPackageCatalog", e);
+        }
+    }
+
+    /**
+     * Updates the local package catalog from the package catalog feed of the storage
+     * (packages/catalog.json), listing the metadata (or summaries) of the most recently published
+     * packages in a packages array. The feed is revalidated with a conditional request, so it is
+     * only downloaded and indexed if it changed since the last update, and only new or modified
+     * packages are added to the catalog. Resolves to the number of packages added.
+     */
+    @ReactMethod
+    public void updatePackageCatalog(final Promise promise) {
+        Log.d(TAG, "updatePackageCatalog()");
+        mDownloadManager
+                .getHttpClient()
+                .newCall(
+                        new Request.Builder()
+                                .url(getStorageUrl("packages/catalog.json"))
+                                .cacheControl(REVALIDATE)
+                                .build())
+                .enqueue(
+                        new Callback() {
+                            @Override
+                            public void onResponse(
+                                    @NonNull Call call, @NonNull Response response) {
+                                try {
+                                    ResponseBody body = response.body();
+                                    Response networkResponse = response.networkResponse();
+                                    if (response.code() == HTTP_NOT_FOUND
+                                            || (networkResponse != null
+                                                    && networkResponse.code()
+                                                            == HTTP_NOT_MODIFIED)) {
+                                        // No feed published, or not modified since last update
+                                        promise.resolve(0);
+                                        return;
+                                    }
+                                    if (!response.isSuccessful() || body == null) {
+                                        throw new IOException(
+                                                String.format(
+                                                        "updatePackageCatalog request failed :"
+                                                                + " %d %s",
+                                                        response.code(), response.message()));
+                                    }
+                                    JSONArray packagesArray =
+                                            new JSONObject(body.string()).getJSONArray("packages");
+                                    List<JSONObject> packages = new ArrayList<>();
+                                    for (int i = 0; i < packagesArray.length(); i++) {
+                                        packages.add(packagesArray.getJSONObject(i));
+                                    }
+                                    promise.resolve(mPackageCatalog.addAll(packages));
+                                } catch (Exception e) {
+                                    promise.reject(E_LIVEBUNDLE_ERROR, e);
+                                } finally {
+                                    response.close();
+                                }
+                            }
+
+                            @Override
+                            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                                promise.reject(E_LIVEBUNDLE_ERROR, e);
+                            }
+                        });
+    }
+
+    /**
+     * Lists the packages of the local package catalog matching some filters, most recent first,
+     * one page at a time. Resolves to the page, as a JSON string (see PackageCatalog.query).
+     *
+     * @param filters Optional branch, pr, platform and text filters
+     * @param cursor  Cursor returned along with the previous page, or null for the first page
+     * @param limit   Maximum number of packages of the page
+     */
+    @ReactMethod
+    public void queryPackages(
+            @Nullable ReadableMap filters, @Nullable String cursor, int limit, Promise promise) {
+        promise.resolve(
+                mPackageCatalog.query(
+                        new PackageIndex.Query(
+                                getString(filters, "branch"),
+                                getString(filters, "pr"),
+                                getString(filters, "platform"),
+                                getString(filters, "text")),
+                        cursor,
+                        limit));
+    }
+
+    /**
+     * Fetches a metadata file through the http cache. The cached copy of the file is used if
+     * any, and unless the file is immutable, it is then revalidated in the background. The file
+     * is only fetched from the storage if not cached.
+     *
+     * @param resourcePath Path to the metadata file
+     * @param immutable    Whether the metadata file never changes once published
+     */
+    private void fetchMetadata(
+            String resourcePath, final boolean immutable, final Callback callback) {
+        final Request request = new Request.Builder().url(getStorageUrl(resourcePath)).build();
+        mDownloadManager
+                .getHttpClient()
+                .newCall(request.newBuilder().cacheControl(CacheControl.FORCE_CACHE).build())
+                .enqueue(
+                        new Callback() {
+                            @Override
+                            public void onResponse(@NonNull Call call, @NonNull Response response)
+                                    throws IOException {
+                                if (response.code() == HTTP_GATEWAY_TIMEOUT) {
+                                    // Not cached
+                                    response.close();
+                                    mDownloadManager
+                                            .getHttpClient()
+                                            .newCall(request)
+                                            .enqueue(callback);
+                                    return;
+                                }
+                                callback.onResponse(call, response);
+                                if (!immutable) {
+                                    revalidateMetadata(request);
+                                }
+                            }
+
+                            @Override
+                            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                                callback.onFailure(call, e);
+                            }
+                        });
+    }
+
+    /** Refreshes the cached copy of a metadata file, if it was modified in the storage */
+    private void revalidateMetadata(Request request) {
+        mDownloadManager
+                .getHttpClient()
+                .newCall(request.newBuilder().cacheControl(REVALIDATE).build())
+                .enqueue(
+                        new Callback() {
+                            @Override
+                            public void onResponse(@NonNull Call call, @NonNull Response response)
+                                    throws IOException {
+                                try {
+                                    // Response is only written to the cache once fully read
+                                    ResponseBody body = response.body();
+                                    if (body != null) {
+                                        body.source().skip(Long.MAX_VALUE);
+                                    }
+                                } finally {
+                                    response.close();
+                                }
+                            }
+
+                            @Override
+                            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                                Log.w(TAG, "revalidateMetadata", e);
+                            }
+                        });
+    }
+
+    private void prefetchBundles(String packageId, List<String> bundleIds, final Promise promise) {
+        new BundlePrefetcher(
+                        new BundlePrefetcher.Fetcher() {
+                            @Override
+                            public void fetch(
+                                    String packageId,
+                                    String bundleId,
+                                    DownloadCallback callback) {
+                                fetchBundle(packageId, bundleId, callback);
+                            }
+                        },
                         packageId,
-                        bundleId,
-                        sStorageUrlSuffix == null ? "" : sStorageUrlSuffix),
-                bundleInfo);
+                        bundleIds,
+                        new BundlePrefetcher.Listener() {
+                            @Override
+                            public void onComplete(
+                                    List<String> fetchedBundleIds, @Nullable Exception error) {
+                                Log.d(
+                                        TAG,
+                                        "prefetchPackage() fetched "
+                                                + fetchedBundleIds.size()
+                                                + " bundle(s)");
+                                if (error != null) {
+                                    promise.reject(E_BUNDLE_DOWNLOAD_ERROR, error);
+                                } else {
+                                    promise.resolve(true);
+                                }
+                            }
+                        })
+                .start();
+    }
+
+    @Nullable
+    private static String getString(@Nullable ReadableMap map, String key) {
+        return map != null && map.hasKey(key) && !map.isNull(key) ? map.getString(key) : null;
+    }
+
+    private static boolean getBoolean(
+            @Nullable ReadableMap map, String key, boolean defaultValue) {
+        return map != null && map.hasKey(key) && !map.isNull(key)
+                ? map.getBoolean(key)
+                : defaultValue;
+    }
+
+    /**
+     * Gets LiveBundle latency metrics : stats of the most recent durations (in ms) of each phase
+     * of switching to a bundle or session, keyed by phase
+     */
+    @ReactMethod
+    public void getMetrics(Promise promise) {
+        WritableMap metrics = Arguments.createMap();
+        for (Map.Entry<String, LiveBundleMetrics.Stats> entry :
+                LiveBundleMetrics.getStats().entrySet()) {
+            LiveBundleMetrics.Stats stats = entry.getValue();
+            WritableMap phaseMetrics = Arguments.createMap();
+            phaseMetrics.putInt("count", stats.count);
+            phaseMetrics.putDouble("min", stats.min);
+            phaseMetrics.putDouble("max", stats.max);
+            phaseMetrics.putDouble("mean", stats.mean);
+            phaseMetrics.putDouble("p50", stats.p50);
+            phaseMetrics.putDouble("p90", stats.p90);
+            phaseMetrics.putDouble("p99", stats.p99);
+            metrics.putMap(entry.getKey(), phaseMetrics);
+        }
+        promise.resolve(metrics);
+    }
+
+    /**
+     * Records the duration of a phase measured on JS side (metadata fetch)
+     *
+     * @param phase      Phase name
+     * @param durationMs Duration of the phase, in ms
+     */
+    @ReactMethod
+    public void recordMetric(String phase, double durationMs) {
+        LiveBundleMetrics.record(phase, (long) durationMs);
+    }
+
+    /**
+     * Cancels an ongoing bundle download. The promises of all the downloadBundle calls waiting for
+     * this download are rejected with E_BUNDLE_DOWNLOAD_CANCELED error code.
+     *
+     * @param packageId The id of the package containing the bundle being downloaded
+     * @param bundleId  The id of the bundle being downloaded
+     */
+    @ReactMethod
+    public void cancelDownload(String packageId, String bundleId, Promise promise) {
+        Log.d(TAG, "cancelDownload()");
+        promise.resolve(mDownloadManager.cancel(packageId, bundleId));
+    }
+
+    /** Required for RN built in Event Emitter Calls. */
+    @ReactMethod
+    public void addListener(String eventName) {}
+
+    /** Required for RN built in Event Emitter Calls. */
+    @ReactMethod
+    public void removeListeners(Integer count) {}
+
+    private void emitEvent(String eventName, WritableMap params) {
+        ReactApplicationContext reactContext = getReactApplicationContext();
+        if (reactContext.hasActiveCatalystInstance()) {
+            reactContext
+                    .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                    .emit(eventName, params);
+        }
+    }
+
+    private static void recordDownloadMetrics(
+            long requestStartTime, long responseTime, DownloadProgress progress) {
+        long streamTime = SystemClock.elapsedRealtime() - responseTime;
+        long transferTime = Math.min(progress.getTransferTimeMs(), streamTime);
+        LiveBundleMetrics.record(
+                LiveBundleMetrics.PHASE_CONNECT, responseTime - requestStartTime);
+        LiveBundleMetrics.record(LiveBundleMetrics.PHASE_TRANSFER, transferTime);
+        LiveBundleMetrics.record(LiveBundleMetrics.PHASE_INFLATE, streamTime - transferTime);
+    }
+
+    /**
+     * Records the duration of the React context recreation that is about to be requested, once
+     * the new React context is initialized
+     */
+    private static void measureContextReady(final ReactInstanceManager instanceManager) {
+        final long recreateStartTime = SystemClock.elapsedRealtime();
+        final int traceCookie = LiveBundleTrace.beginAsyncSection(LiveBundleTrace.CONTEXT_READY);
+        instanceManager.addReactInstanceEventListener(
+                new ReactInstanceManager.ReactInstanceEventListener() {
+                    @Override
+                    public void onReactContextInitialized(ReactContext context) {
+                        instanceManager.removeReactInstanceEventListener(this);
+                        LiveBundleTrace.endAsyncSection(
+                                LiveBundleTrace.CONTEXT_READY, traceCookie);
+                        LiveBundleMetrics.record(
+                                LiveBundleMetrics.PHASE_CONTEXT_READY,
+                                SystemClock.elapsedRealtime() - recreateStartTime);
+                    }
+                });
+    }
+
+    /**
+     * Rejects a bundle download if it was canceled, before starting its next stage
+     *
+     * @return Whether the download was canceled
+     */
+    private boolean rejectIfCanceled(
+            String packageId, String bundleId, DownloadCallback callback) {
+        if (!mDownloadManager.isCanceled(packageId, bundleId)) {
+            return false;
+        }
+        callback.onFailure(E_BUNDLE_DOWNLOAD_CANCELED, new IOException("Canceled"));
+        return true;
+    }
+
+    private static void rejectDownload(Call call, Exception e, DownloadCallback callback) {
+        callback.onFailure(
+                call.isCanceled() ? E_BUNDLE_DOWNLOAD_CANCELED : E_BUNDLE_DOWNLOAD_ERROR, e);
+    }
+
+    /**
+     * Gets full storage url to resource
+     *
+     * @param resourcePath Path to resource
+     */
+    private static String getStorageUrl(String resourcePath) {
+        return String.format(
+                "%s/%s%s",
+                sStorageUrl, resourcePath, sStorageUrlSuffix == null ? "" : sStorageUrlSuffix);
     }
 
     /**
-     * Installs the current bundle. Note that we don't need to resolve the promise here, because
-     * installing the bundle will recreate the react context, so the caller will not be in context
-     * anymore after this method is executed.
+     * Installs the current bundle (last downloaded one, or any stored bundle, which is made
+     * current by calling downloadBundle with its ids). The bundle is first validated off the
+     * main thread (see BundleValidator, bundles already verified against their digest when
+     * stored are not hashed again) : if it cannot be installed, the promise is rejected with
+     * E_BUNDLE_VALIDATION_ERROR and the current React context keeps running. Note that we don't
+     * need to resolve the promise here, because installing the bundle will recreate the react
+     * context, so the caller will not be in context anymore after this method is executed.
      */
     @ReactMethod
     public void installBundle(final Promise promise) {
         Log.d(TAG, "installBundle()");
+        final long installStartTime = SystemClock.elapsedRealtime();
+        final String packageId = sPackageId;
+        final String bundleId = sBundleId;
+        final File bundleFile =
+                packageId == null || bundleId == null
+                        ? null
+                        : mBundleStore.get(packageId, bundleId);
+        if (bundleFile == null) {
+            promise.reject(E_LIVEBUNDLE_ERROR, new IOException("No downloaded bundle to install"));
+            return;
+        }
+        final int traceCookie = LiveBundleTrace.beginAsyncSection(LiveBundleTrace.INSTALL_BUNDLE);
+        // Validation needs the published digest and React Native version of the bundle, from its
+        // package metadata (cached when the bundle was downloaded)
+        getBundleInfo(
+                packageId,
+                bundleId,
+                new BundleInfoCallback() {
+                    @Override
+                    public void onBundleInfo(BundleInfo bundleInfo) {
+                        LiveBundleTrace.beginSection(LiveBundleTrace.VALIDATE_BUNDLE);
+                        try {
+                            // Bundles verified when stored are not hashed again, only the cheap
+                            // checks are run on them
+                            BundleValidator.validate(
+                                    bundleFile,
+                                    mBundleStore.isVerified(packageId, bundleId)
+                                            ? null
+                                            : bundleInfo.digest,
+                                    bundleInfo.reactNativeVersion,
+                                    getInstanceManager());
+                        } catch (IOException e) {
+                            Log.e(TAG, "installBundle validation error", e);
+                            if (e instanceof BundleValidator.CorruptBundleException) {
+                                // Drop the broken bundle, so that it gets downloaded again
+                                mBundleStore.remove(packageId, bundleId);
+                            }
+                            LiveBundleTrace.endAsyncSection(
+                                    LiveBundleTrace.INSTALL_BUNDLE, traceCookie);
+                            promise.reject(E_BUNDLE_VALIDATION_ERROR, e);
+                            return;
+                        } finally {
+                            LiveBundleTrace.endSection();
+                        }
+                        swapBundleLoader(
+                                packageId, bundleId, bundleFile, installStartTime, promise);
+                        LiveBundleTrace.endAsyncSection(
+                                LiveBundleTrace.INSTALL_BUNDLE, traceCookie);
+                    }
+                });
+    }
+
+    /**
+     * Sets a validated bundle as the JSBundleLoader of the ReactInstanceManager, and recreates
+     * the React context to load it
+     */
+    private void swapBundleLoader(
+            String packageId,
+            String bundleId,
+            File bundleFile,
+            long installStartTime,
+            final Promise promise) {
+        backupInitialBundleLoader();
         try {
             // Create a React Native bundle file loader to load the bundle.
             // and set it as current JSBundleLoader on ReactInstanceManager instance.
             // Because the target mBundleLoader field is not public, we have to resort to
             // reflection.
             final ReactInstanceManager instanceManager = getInstanceManager();
+            mBundleStore.pin(packageId, bundleId);
             final JSBundleLoader jsBundleLoader =
-                    JSBundleLoader.createFileLoader(mJSLiveBundleFile.getAbsolutePath());
+                    JSBundleLoader.createFileLoader(bundleFile.getAbsolutePath());
+            if (sInstancePrewarmEnabled && sReactNativeHost != null) {
+                LiveBundleMetrics.record(
+                        LiveBundleMetrics.PHASE_LOADER_SWAP,
+                        SystemClock.elapsedRealtime() - installStartTime);
+                switchReactInstance(jsBundleLoader, promise);
+                return;
+            }
             Field bundleLoaderField = instanceManager.getClass().getDeclaredField("mBundleLoader");
             bundleLoaderField.setAccessible(true);
             bundleLoaderField.set(instanceManager, jsBundleLoader);
+            LiveBundleMetrics.record(
+                    LiveBundleMetrics.PHASE_LOADER_SWAP,
+                    SystemClock.elapsedRealtime() - installStartTime);
 
             new Handler(Looper.getMainLooper())
                     .post(
                             new Runnable() {
                                 @Override
                                 public void run() {
+                                    LiveBundleTrace.beginSection(
+                                            LiveBundleTrace.RECREATE_REACT_CONTEXT);
+                                    ReactInstanceManager.ReactInstanceEventListener
+                                            installStateListener = null;
                                     try {
                                         // Call recreateReactContextInBackgroundFromBundleLoader
                                         // This method should be called from the main UI thread (RN
@@ -415,24 +1869,92 @@ public class LiveBundle extends ReactContextBaseJavaModule {
                                                         .getDeclaredMethod(
                                                                 "recreateReactContextInBackgroundFromBundleLoader");
                                         recreateMethod.setAccessible(true);
+                                        measureContextReady(instanceManager);
+                                        installStateListener =
+                                                saveInstallStateOnceReady(instanceManager);
                                         recreateMethod.invoke(instanceManager);
                                         LiveBundle.sBundleInstalled = true;
                                     } catch (Exception e) {
                                         Log.e(TAG, "installBundle error [A]", e);
+                                        if (installStateListener != null) {
+                                            instanceManager.removeReactInstanceEventListener(
+                                                    installStateListener);
+                                        }
                                         LiveBundle.this.reset(null);
                                         LiveBundle.sBundleInstalled = false;
                                         promise.reject(E_LIVEBUNDLE_ERROR, e);
+                                    } finally {
+                                        LiveBundleTrace.endSection();
                                     }
                                 }
                             });
         } catch (Exception e) {
+            // The React context was not recreated yet, so there is nothing to reset
             Log.e(TAG, "installBundle error [B]", e);
-            LiveBundle.this.reset(null);
-            LiveBundle.sBundleInstalled = false;
             promise.reject(E_LIVEBUNDLE_ERROR, e);
         }
     }
 
+    /**
+     * Installs a bundle in a new React instance, pre-warmed in the background while the current
+     * React instance is still running. The install state is only persisted once switched, so
+     * that a bundle failing to initialize is not cold started from. If the switch fails (see
+     * ReactInstanceSwitcher), the promise is rejected and the current React instance keeps
+     * running.
+     */
+    private void switchReactInstance(final JSBundleLoader jsBundleLoader, final Promise promise) {
+        final ReactInstanceManager instanceManager = getInstanceManager();
+        final Context context = getReactApplicationContext().getApplicationContext();
+        final boolean wasBundleInstalled = LiveBundle.sBundleInstalled;
+        // Set before the new React context (and thus this module) gets created, so that the new
+        // module instance does not backup the JSBundleLoader of the bundle being installed
+        LiveBundle.sBundleInstalled = true;
+        new Handler(Looper.getMainLooper())
+                .post(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                LiveBundleTrace.beginSection(
+                                        LiveBundleTrace.RECREATE_REACT_CONTEXT);
+                                final long switchStartTime = SystemClock.elapsedRealtime();
+                                try {
+                                    ReactInstanceSwitcher.switchTo(
+                                            sReactNativeHost,
+                                            instanceManager,
+                                            jsBundleLoader,
+                                            new ReactInstanceSwitcher.Listener() {
+                                                @Override
+                                                public void onSwitched(
+                                                        ReactInstanceManager newInstanceManager) {
+                                                    LiveBundle.sReactInstanceManager =
+                                                            newInstanceManager;
+                                                    saveInstallState(context);
+                                                    LiveBundleMetrics.record(
+                                                            LiveBundleMetrics.PHASE_CONTEXT_READY,
+                                                            SystemClock.elapsedRealtime()
+                                                                    - switchStartTime);
+                                                }
+
+                                                @Override
+                                                public void onFailure(Exception e) {
+                                                    Log.e(TAG, "installBundle error [D]", e);
+                                                    restoreInstallState(
+                                                            context, wasBundleInstalled);
+                                                    promise.reject(E_LIVEBUNDLE_ERROR, e);
+                                                }
+                                            });
+                                } catch (Exception e) {
+                                    // The current React instance is still in use
+                                    Log.e(TAG, "installBundle error [C]", e);
+                                    restoreInstallState(context, wasBundleInstalled);
+                                    promise.reject(E_LIVEBUNDLE_ERROR, e);
+                                } finally {
+                                    LiveBundleTrace.endSection();
+                                }
+                            }
+                        });
+    }
+
     /**
      * Restores the state of the application to the one prior to installing a LiveBundle bundle.
      * Note that we don't need to resolve the promise here, because installing the bundle will
@@ -442,6 +1964,11 @@ public class LiveBundle extends ReactContextBaseJavaModule {
     @ReactMethod
     public void reset(@Nullable final Promise promise) {
         Log.d(TAG, "reset()");
+        LiveBundleTrace.beginSection(LiveBundleTrace.RESET);
+        if (LiveBundle.sBundleInstalled) {
+            // Nothing backed up yet if cold started from the installed bundle
+            backupInitialBundleLoader();
+        }
         try {
             // Restore the JSBundleLoader instance of ReactInstanceManager to the one that was used
             // before installing any JS bundle using LiveBundle.
@@ -471,13 +1998,18 @@ public class LiveBundle extends ReactContextBaseJavaModule {
                             new Runnable() {
                                 @Override
                                 public void run() {
+                                    LiveBundleTrace.beginSection(
+                                            LiveBundleTrace.RECREATE_REACT_CONTEXT);
                                     try {
+                                        measureContextReady(instanceManager);
                                         instanceManager.recreateReactContextInBackground();
                                     } catch (Exception e) {
                                         Log.e(TAG, "reset", e);
                                         if (promise != null) {
                                             promise.reject(E_LIVEBUNDLE_ERROR, e);
                                         }
+                                    } finally {
+                                        LiveBundleTrace.endSection();
                                     }
                                 }
                             });
@@ -487,10 +2019,66 @@ public class LiveBundle extends ReactContextBaseJavaModule {
                 promise.reject(E_LIVEBUNDLE_ERROR, e);
             }
         } finally {
+            mBundleStore.pin(null, null);
             LiveBundle.sPackageId = null;
             LiveBundle.sBundleId = null;
             LiveBundle.sBundleInstalled = false;
             LiveBundle.sSessionStarted = false;
+            saveInstallState(getReactApplicationContext());
+            LiveBundleTrace.endSection();
+        }
+    }
+
+    /**
+     * Persists the install state once the React context being created from the installed bundle
+     * is initialized, so that a bundle failing to initialize is not cold started from. The
+     * listener is removed if the React context is not initialized within
+     * ReactInstanceSwitcher.SWITCH_TIMEOUT_MS, so that it does not persist the state of a later
+     * install or reset.
+     *
+     * @return The listener, to remove if the React context cannot be recreated
+     */
+    private static ReactInstanceManager.ReactInstanceEventListener saveInstallStateOnceReady(
+            final ReactInstanceManager instanceManager) {
+        final Handler handler = new Handler(Looper.getMainLooper());
+        final ReactInstanceManager.ReactInstanceEventListener listener =
+                new ReactInstanceManager.ReactInstanceEventListener() {
+                    @Override
+                    public void onReactContextInitialized(ReactContext context) {
+                        instanceManager.removeReactInstanceEventListener(this);
+                        handler.removeCallbacksAndMessages(null);
+                        saveInstallState(context);
+                    }
+                };
+        instanceManager.addReactInstanceEventListener(listener);
+        handler.postDelayed(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        instanceManager.removeReactInstanceEventListener(listener);
+                    }
+                },
+                ReactInstanceSwitcher.SWITCH_TIMEOUT_MS);
+        return listener;
+    }
+
+    /**
+     * Restores the install state prior to a failed bundle install, from its persisted copy
+     *
+     * @param wasBundleInstalled Whether a bundle was installed before the failed install
+     */
+    private void restoreInstallState(Context context, boolean wasBundleInstalled) {
+        LiveBundle.sBundleInstalled = wasBundleInstalled;
+        InstallState state = InstallState.load(context);
+        if (state.bundleInstalled) {
+            mBundleStore.pin(state.packageId, state.bundleId);
+        } else {
+            mBundleStore.pin(null, null);
         }
     }
+
+    /** Persists the current install state, so that it can be restored after process death */
+    private static void saveInstallState(Context context) {
+        new InstallState(sPackageId, sBundleId, sBundleInstalled, sSessionStarted).save(context);
+    }
 }
@@ -0,0 +1,155 @@
+package io.livebundle;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Latency metrics of the phases of switching to a LiveBundle bundle or session.
+ *
+ * <p>The duration of each phase is kept in a rolling window of the most recent samples, from
+ * which stats (count, min, max, mean and percentiles) can be queried, either natively or from JS
+ * (LiveBundle.getMetrics). Native code can also be notified of each measure as it happens, by
+ * adding a {@link Listener}.
+ */
+public final class LiveBundleMetrics {
+    /** Fetch of a package or session metadata.json */
+    public static final String PHASE_METADATA_FETCH = "metadataFetch";
+    /** From bundle request start to response headers received */
+    public static final String PHASE_CONNECT = "connect";
+    /** Time spent waiting for bundle bytes from the network */
+    public static final String PHASE_TRANSFER = "transfer";
+    /** Time spent inflating (or patching) and writing the bundle, excluding transfer */
+    public static final String PHASE_INFLATE = "inflate";
+    /** Bundle validation and swap of the React Native JSBundleLoader */
+    public static final String PHASE_LOADER_SWAP = "loaderSwap";
+    /** From React context recreation request to new React context initialized */
+    public static final String PHASE_CONTEXT_READY = "contextReady";
+    /** Parallel probe of live session hosts, until the fastest one replied */
+    public static final String PHASE_HOST_PROBE = "hostProbe";
+    /** Construction of the LiveBundle native module, on the React context creation path */
+    public static final String PHASE_MODULE_INIT = "moduleInit";
+    /**
+     * Deferred initialization of LiveBundle (bundle store, http client), once per process. This
+     * work used to run in the module constructor, but no constructor time was measured before it
+     * was deferred : this is an estimate of the cost removed from the startup path, not a
+     * before/after comparison.
+     */
+    public static final String PHASE_MODULE_WARMUP = "moduleWarmup";
+
+    private static final int WINDOW_SIZE = 100;
+
+    /** Listener of phase measures */
+    public interface Listener {
+        /**
+         * Called any time a phase duration is measured. Can be called from any thread.
+         *
+         * @param phase      Phase (one of the PHASE_* constants)
+         * @param durationMs Duration of the phase, in ms
+         */
+        void onPhaseMeasured(@NonNull String phase, long durationMs);
+    }
+
+    /** Stats of the durations of a phase, over the most recent samples */
+    public static final class Stats {
+        public final int count;
+        public final long min;
+        public final long max;
+        public final long mean;
+        public final long p50;
+        public final long p90;
+        public final long p99;
+
+        Stats(long[] sortedSamples) {
+            count = sortedSamples.length;
+            min = sortedSamples[0];
+            max = sortedSamples[count - 1];
+            long sum = 0;
+            for (long sample : sortedSamples) {
+                sum += sample;
+            }
+            mean = sum / count;
+            p50 = percentile(sortedSamples, 50);
+            p90 = percentile(sortedSamples, 90);
+            p99 = percentile(sortedSamples, 99);
+        }
+
+        private static long percentile(long[] sortedSamples, int percentile) {
+            int index = (int) Math.ceil(percentile / 100.0 * sortedSamples.length) - 1;
+            return sortedSamples[Math.max(0, index)];
+        }
+    }
+
+    private static final Map<String, Window> sWindows = new HashMap<>();
+    private static final CopyOnWriteArrayList<Listener> sListeners =
+            new CopyOnWriteArrayList<>();
+
+    private LiveBundleMetrics() {}
+
+    public static void addListener(@NonNull Listener listener) {
+        sListeners.add(listener);
+    }
+
+    public static void removeListener(@NonNull Listener listener) {
+        sListeners.remove(listener);
+    }
+
+    /** Returns the stats of all measured phases, keyed by phase */
+    @NonNull
+    public static synchronized Map<String, Stats> getStats() {
+        Map<String, Stats> stats = new HashMap<>();
+        for (Map.Entry<String, Window> entry : sWindows.entrySet()) {
+            long[] samples = entry.getValue().getSamples();
+            if (samples.length > 0) {
+                Arrays.sort(samples);
+                stats.put(entry.getKey(), new Stats(samples));
+            }
+        }
+        return stats;
+    }
+
+    /** Clears all samples */
+    public static synchronized void reset() {
+        sWindows.clear();
+    }
+
+    /**
+     * Records a phase duration
+     *
+     * @param phase      Phase (one of the PHASE_* constants)
+     * @param durationMs Duration of the phase, in ms
+     */
+    static void record(String phase, long durationMs) {
+        synchronized (LiveBundleMetrics.class) {
+            Window window = sWindows.get(phase);
+            if (window == null) {
+                window = new Window();
+                sWindows.put(phase, window);
+            }
+            window.add(durationMs);
+        }
+        for (Listener listener : sListeners) {
+            listener.onPhaseMeasured(phase, durationMs);
+        }
+    }
+
+    /** Ring buffer of the most recent samples of a phase */
+    private static final class Window {
+        private final long[] mSamples = new long[WINDOW_SIZE];
+        private int mCount;
+        private int mNext;
+
+        void add(long sample) {
+            mSamples[mNext] = sample;
+            mNext = (mNext + 1) % WINDOW_SIZE;
+            mCount = Math.min(mCount + 1, WINDOW_SIZE);
+        }
+
+        long[] getSamples() {
+            return Arrays.copyOf(mSamples, mCount);
+        }
+    }
+}
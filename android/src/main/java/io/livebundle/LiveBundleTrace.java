@@ -0,0 +1,79 @@
+package io.livebundle;
+
+import com.facebook.systrace.Systrace;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Named trace sections of the LiveBundle lifecycle (download, inflate, install, live session,
+ * reset and React context recreation), shown in system traces (Perfetto / Systrace).
+ *
+ * <p>Sections go through the React Native Systrace, under the React Native tag, so that they
+ * appear alongside React Native markers (React context creation in particular). Synchronous
+ * sections cover work done on a single thread, while async slices cover operations spanning
+ * several threads (OkHttp threads, main thread ...), identified by a cookie.
+ *
+ * <p>Section names are constants, and nothing is allocated when tracing is off : every method
+ * starts with the tracing check, and async slices started while tracing was off get a 0 cookie
+ * on which ending them is a no-op.
+ */
+final class LiveBundleTrace {
+    private static final long TRACE_TAG = Systrace.TRACE_TAG_REACT_JAVA_BRIDGE;
+
+    static final String DOWNLOAD_BUNDLE = "LiveBundle.downloadBundle";
+    static final String INFLATE = "LiveBundle.inflate";
+    static final String PATCH = "LiveBundle.patch";
+    static final String INSTALL_BUNDLE = "LiveBundle.installBundle";
+    static final String VALIDATE_BUNDLE = "LiveBundle.validateBundle";
+    static final String LAUNCH_LIVE_SESSION = "LiveBundle.launchLiveSession";
+    static final String RESET = "LiveBundle.reset";
+    static final String RECREATE_REACT_CONTEXT = "LiveBundle.recreateReactContext";
+    static final String CONTEXT_READY = "LiveBundle.contextReady";
+
+    private static final AtomicInteger sNextCookie = new AtomicInteger(1);
+
+    private LiveBundleTrace() {}
+
+    /** Begins a synchronous section, to be ended on the same thread with {@link #endSection} */
+    static void beginSection(String name) {
+        if (Systrace.isTracing(TRACE_TAG)) {
+            Systrace.beginSection(TRACE_TAG, name);
+        }
+    }
+
+    static void endSection() {
+        if (Systrace.isTracing(TRACE_TAG)) {
+            Systrace.endSection(TRACE_TAG);
+        }
+    }
+
+    /**
+     * Begins an async slice, that can be ended on any thread
+     *
+     * @param name Name of the slice
+     * @return Cookie of the slice, to pass to {@link #endAsyncSection}
+     */
+    static int beginAsyncSection(String name) {
+        if (!Systrace.isTracing(TRACE_TAG)) {
+            return 0;
+        }
+        int cookie = sNextCookie.getAndIncrement();
+        if (cookie == 0) {
+            cookie = sNextCookie.getAndIncrement();
+        }
+        Systrace.beginAsyncSection(TRACE_TAG, name, cookie);
+        return cookie;
+    }
+
+    /**
+     * Ends an async slice
+     *
+     * @param name   Name of the slice
+     * @param cookie Cookie returned by {@link #beginAsyncSection}
+     */
+    static void endAsyncSection(String name, int cookie) {
+        if (cookie != 0) {
+            Systrace.endAsyncSection(TRACE_TAG, name, cookie);
+        }
+    }
+}
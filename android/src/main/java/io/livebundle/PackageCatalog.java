@@ -0,0 +1,270 @@
+package io.livebundle;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Local index of the metadata of LiveBundle packages, to browse and search them (by branch, pull
+ * request, platform or text) without fetching any package metadata.json.
+ *
+ * <p>The catalog is updated incrementally : packages are added as their metadata gets fetched,
+ * or in bulk from the package catalog feed of the storage (see LiveBundle.updatePackageCatalog),
+ * and only new or modified packages are indexed. Each package is summarized (id, timestamp,
+ * branch, pr, commit, description and platforms of its bundles) so that the whole catalog fits
+ * in memory.
+ *
+ * <p>Packages are indexed and queried in memory by a {@link PackageIndex}, which keeps them
+ * sorted and indexed by branch, pull request and platform, and pages through them with cursors.
+ *
+ * <p>The catalog is persisted as an append-only log of package summaries (one JSON object per
+ * line), compacted once it gets twice as large as the catalog. It is loaded from disk lazily, on
+ * first access.
+ */
+final class PackageCatalog {
+    private static final String TAG = "LiveBundle";
+    private static final String CATALOG_FILE_NAME = "livebundle/catalog.jsonl";
+    private static final String TEMP_CATALOG_FILE_NAME = "livebundle/catalog.jsonl.tmp";
+    private static final String UTF_8 = "UTF-8";
+    static final int MAX_PACKAGES = 10000;
+    static final int MAX_PAGE_SIZE = 100;
+
+    private static PackageCatalog sInstance;
+
+    private final File mFile;
+    private final File mTempFile;
+    private final PackageIndex mIndex = new PackageIndex(MAX_PACKAGES);
+    // Number of summaries in the log file
+    private int mLogLength;
+    // Whether the log file ends with a partially written line, which must not be appended to
+    private boolean mLogTruncated;
+    private boolean mLoaded;
+
+    /** Returns the process wide catalog instance (it outlives React context recreation) */
+    static synchronized PackageCatalog getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PackageCatalog(context.getApplicationContext().getFilesDir());
+        }
+        return sInstance;
+    }
+
+    private PackageCatalog(File filesDir) {
+        mFile = new File(filesDir, CATALOG_FILE_NAME);
+        mTempFile = new File(filesDir, TEMP_CATALOG_FILE_NAME);
+    }
+
+    /** Loads the catalog from disk, if not loaded yet */
+    synchronized void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (!mFile.isFile()) {
+            return;
+        }
+        try {
+            BufferedReader reader =
+                    new BufferedReader(new InputStreamReader(new FileInputStream(mFile), UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    mLogLength++;
+                    try {
+                        index(new JSONObject(line));
+                    } catch (JSONException e) {
+                        // Partially written last line, if the process was killed while appending
+                        Log.w(TAG, "PackageCatalog.load", e);
+                        mLogTruncated = true;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "PackageCatalog.load", e);
+        }
+        mIndex.trimToSize();
+    }
+
+    /**
+     * Adds packages to the catalog, or updates them if their metadata changed
+     *
+     * @param packages Metadata (metadata.json) or summaries of the packages
+     * @return The number of new or updated packages
+     * @throws IOException If the catalog cannot be written to disk
+     */
+    synchronized int addAll(List<JSONObject> packages) throws IOException {
+        load();
+        List<String> added = new ArrayList<>();
+        for (JSONObject metadata : packages) {
+            try {
+                JSONObject summary = summarize(metadata);
+                PackageIndex.Entry entry = mIndex.get(summary.getString("id"));
+                if (entry == null || !entry.json.equals(summary.toString())) {
+                    added.add(index(summary).json);
+                }
+            } catch (JSONException e) {
+                Log.w(TAG, "PackageCatalog.addAll", e);
+            }
+        }
+        if (added.isEmpty()) {
+            return 0;
+        }
+        mIndex.trimToSize();
+        if (mLogTruncated || mLogLength + added.size() > 2 * mIndex.size()) {
+            compact();
+        } else {
+            append(added);
+        }
+        return added.size();
+    }
+
+    /** Returns the number of packages in the catalog */
+    synchronized int size() {
+        load();
+        return mIndex.size();
+    }
+
+    /**
+     * Lists the packages matching a query, most recent first, one page at a time
+     *
+     * @param query  Filters of the query
+     * @param cursor Cursor returned along with the previous page, or null for the first page
+     * @param limit  Maximum number of packages of the page (at most {@link #MAX_PAGE_SIZE})
+     * @return The page, as a JSON object containing the package summaries (packages) and the
+     *     cursor of the next page (cursor, null if this is the last page)
+     */
+    synchronized String query(PackageIndex.Query query, @Nullable String cursor, int limit) {
+        load();
+        PackageIndex.Page result = mIndex.query(query, cursor, Math.min(limit, MAX_PAGE_SIZE));
+        StringBuilder page = new StringBuilder("{\"packages\":[");
+        for (int i = 0; i < result.entries.size(); i++) {
+            if (i > 0) {
+                page.append(',');
+            }
+            page.append(result.entries.get(i).json);
+        }
+        page.append("],\"cursor\":");
+        page.append(result.cursor != null ? JSONObject.quote(result.cursor) : "null");
+        return page.append('}').toString();
+    }
+
+    /**
+     * Summarizes the metadata of a package, keeping the fields that packages are browsed and
+     * searched by
+     */
+    private static JSONObject summarize(JSONObject metadata) throws JSONException {
+        JSONObject summary = new JSONObject();
+        summary.put("id", metadata.getString("id"));
+        summary.put("timestamp", metadata.optLong("timestamp", 0));
+        for (String key : new String[] {"branch", "pr", "commit", "description"}) {
+            String value = optString(metadata, key);
+            if (value != null) {
+                summary.put(key, value);
+            }
+        }
+        JSONArray platforms = metadata.optJSONArray("platforms");
+        JSONArray bundles = metadata.optJSONArray("bundles");
+        if (platforms == null && bundles != null) {
+            platforms = new JSONArray();
+            List<String> seen = new ArrayList<>();
+            for (int i = 0; i < bundles.length(); i++) {
+                JSONObject bundle = bundles.optJSONObject(i);
+                String platform = bundle == null ? null : optString(bundle, "platform");
+                if (platform != null && !seen.contains(platform)) {
+                    seen.add(platform);
+                    platforms.put(platform);
+                }
+            }
+        }
+        summary.put("platforms", platforms == null ? new JSONArray() : platforms);
+        return summary;
+    }
+
+    /** Indexes a package summary, replacing the previous one of the package if any */
+    private PackageIndex.Entry index(JSONObject summary) throws JSONException {
+        String id = summary.getString("id");
+        JSONArray platformsArray = summary.getJSONArray("platforms");
+        List<String> platforms = new ArrayList<>(platformsArray.length());
+        for (int i = 0; i < platformsArray.length(); i++) {
+            platforms.add(platformsArray.getString(i));
+        }
+        StringBuilder searchText = new StringBuilder(id);
+        for (String key : new String[] {"branch", "pr", "commit", "description"}) {
+            String value = optString(summary, key);
+            if (value != null) {
+                searchText.append('\n').append(value);
+            }
+        }
+        PackageIndex.Entry entry =
+                new PackageIndex.Entry(
+                        id,
+                        summary.getLong("timestamp"),
+                        optString(summary, "branch"),
+                        optString(summary, "pr"),
+                        platforms,
+                        summary.toString(),
+                        searchText.toString().toLowerCase(Locale.ROOT));
+        mIndex.put(entry);
+        return entry;
+    }
+
+    /** Appends package summaries to the log file */
+    private void append(List<String> summaries) throws IOException {
+        mFile.getParentFile().mkdirs();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(mFile, true), UTF_8);
+        try {
+            for (String summary : summaries) {
+                writer.write(summary);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        mLogLength += summaries.size();
+    }
+
+    /** Rewrites the log file with the current package summaries only */
+    private void compact() throws IOException {
+        mFile.getParentFile().mkdirs();
+        FileOutputStream fout = new FileOutputStream(mTempFile);
+        try {
+            Writer writer = new OutputStreamWriter(fout, UTF_8);
+            // Least recent first, as if they had been appended in order
+            List<PackageIndex.Entry> entries = mIndex.getEntries();
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                writer.write(entries.get(i).json);
+                writer.write('\n');
+            }
+            writer.flush();
+            fout.getFD().sync();
+        } finally {
+            fout.close();
+        }
+        BundleFiles.swap(mTempFile, mFile);
+        mLogLength = mIndex.size();
+        mLogTruncated = false;
+    }
+
+    @Nullable
+    private static String optString(JSONObject object, String key) {
+        return object.isNull(key) ? null : object.optString(key);
+    }
+}
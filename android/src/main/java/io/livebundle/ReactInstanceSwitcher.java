@@ -0,0 +1,229 @@
+package io.livebundle;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.ReactInstanceManager;
+import com.facebook.react.ReactNativeHost;
+import com.facebook.react.ReactRootView;
+import com.facebook.react.bridge.JSBundleLoader;
+import com.facebook.react.bridge.ReactContext;
+import com.facebook.react.common.LifecycleState;
+import com.facebook.react.modules.core.DefaultHardwareBackBtnHandler;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Switches the application to a new bundle without tearing down the current React instance first.
+ *
+ * <p>A second ReactInstanceManager is created by the ReactNativeHost (so that it gets the same
+ * packages and JS engine as the current one), and its React context is created from the new
+ * bundle in the background, while the current React instance keeps rendering. Only once the new
+ * React context is initialized are the React root views remounted on the new instance, which
+ * then replaces the current one in the ReactNativeHost. The previous instance is destroyed.
+ *
+ * <p>If the new React context is not initialized within {@link #SWITCH_TIMEOUT_MS} (the bundle
+ * threw while being evaluated for example), the new instance is destroyed, and the current one
+ * keeps running.
+ *
+ * <p>Most of the required ReactInstanceManager and ReactNativeHost members are not public, so we
+ * have to resort to reflection.
+ */
+final class ReactInstanceSwitcher {
+    private static final String TAG = "LiveBundle";
+    static final long SWITCH_TIMEOUT_MS = 30000;
+
+    interface Listener {
+        /**
+         * Called on the main thread once the new React instance is in use
+         *
+         * @param instanceManager The new ReactInstanceManager
+         */
+        void onSwitched(ReactInstanceManager instanceManager);
+
+        /**
+         * Called on the main thread if the new React instance could not be switched to. The
+         * new instance is destroyed, the current one is still in use.
+         *
+         * @param e Cause
+         */
+        void onFailure(Exception e);
+    }
+
+    // React instance being created in the background, if any
+    @Nullable private static volatile ReactInstanceManager sPendingInstanceManager;
+
+    private ReactInstanceSwitcher() {}
+
+    /**
+     * Returns the ReactInstanceManager whose React context is being created in the background, or
+     * null if no switch is in progress
+     */
+    @Nullable
+    static ReactInstanceManager getPendingInstanceManager() {
+        return sPendingInstanceManager;
+    }
+
+    /**
+     * Starts creating a new React instance from a bundle, and switches to it once its React
+     * context is initialized. Should be called from the main UI thread.
+     *
+     * @param reactNativeHost        ReactNativeHost holding the current React instance
+     * @param currentInstanceManager Current ReactInstanceManager, destroyed once switched
+     * @param jsBundleLoader         Loader of the bundle to run in the new React instance
+     * @param listener               Listener notified once switched, or once the switch failed
+     * @throws Exception If the new React instance cannot be created (the listener is then not
+     *     notified)
+     */
+    static void switchTo(
+            final ReactNativeHost reactNativeHost,
+            final ReactInstanceManager currentInstanceManager,
+            JSBundleLoader jsBundleLoader,
+            final Listener listener)
+            throws Exception {
+        if (sPendingInstanceManager != null) {
+            throw new IllegalStateException("A React instance switch is already in progress");
+        }
+        // Look up all members first, so that nothing is started if any of them is missing
+        final Field instanceManagerField =
+                getField(ReactNativeHost.class, "mReactInstanceManager");
+        // ReactRoot instances in mAttachedReactRoots on RN 0.61+, ReactRootView instances in
+        // mAttachedRootViews before
+        final Field attachedRootsField =
+                getField(ReactInstanceManager.class, "mAttachedReactRoots", "mAttachedRootViews");
+        Method recreateMethod =
+                ReactInstanceManager.class.getDeclaredMethod(
+                        "recreateReactContextInBackgroundFromBundleLoader");
+        recreateMethod.setAccessible(true);
+        Method createMethod =
+                ReactNativeHost.class.getDeclaredMethod("createReactInstanceManager");
+        createMethod.setAccessible(true);
+        final ReactInstanceManager instanceManager =
+                (ReactInstanceManager) createMethod.invoke(reactNativeHost);
+        try {
+            getField(ReactInstanceManager.class, "mBundleLoader")
+                    .set(instanceManager, jsBundleLoader);
+            // Root views only create the initial React context if it has not been started yet
+            getField(ReactInstanceManager.class, "mHasStartedCreatingInitialContext")
+                    .set(instanceManager, true);
+        } catch (Exception e) {
+            instanceManager.destroy();
+            throw e;
+        }
+        final Handler handler = new Handler(Looper.getMainLooper());
+        final ReactInstanceManager.ReactInstanceEventListener initializedListener =
+                new ReactInstanceManager.ReactInstanceEventListener() {
+                    @Override
+                    public void onReactContextInitialized(ReactContext context) {
+                        instanceManager.removeReactInstanceEventListener(this);
+                        if (sPendingInstanceManager != instanceManager) {
+                            // Timed out
+                            return;
+                        }
+                        sPendingInstanceManager = null;
+                        handler.removeCallbacksAndMessages(null);
+                        try {
+                            instanceManagerField.set(reactNativeHost, instanceManager);
+                            remountRoots(
+                                    (Collection<?>)
+                                            attachedRootsField.get(currentInstanceManager),
+                                    currentInstanceManager,
+                                    instanceManager);
+                        } catch (IllegalAccessException e) {
+                            // Should never happen, as fields are made accessible beforehand
+                            Log.e(TAG, "ReactInstanceSwitcher error", e);
+                            instanceManager.destroy();
+                            listener.onFailure(e);
+                            return;
+                        }
+                        currentInstanceManager.destroy();
+                        listener.onSwitched(instanceManager);
+                    }
+                };
+        instanceManager.addReactInstanceEventListener(initializedListener);
+
+        sPendingInstanceManager = instanceManager;
+        try {
+            // Load from the bundle loader even when developer support is enabled, rather than
+            // from the packager
+            recreateMethod.invoke(instanceManager);
+        } catch (Exception e) {
+            sPendingInstanceManager = null;
+            instanceManager.removeReactInstanceEventListener(initializedListener);
+            instanceManager.destroy();
+            throw e;
+        }
+        handler.postDelayed(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        if (sPendingInstanceManager != instanceManager) {
+                            return;
+                        }
+                        sPendingInstanceManager = null;
+                        instanceManager.removeReactInstanceEventListener(initializedListener);
+                        instanceManager.destroy();
+                        listener.onFailure(
+                                new TimeoutException(
+                                        "React context of the new bundle was not initialized"
+                                                + " within "
+                                                + SWITCH_TIMEOUT_MS
+                                                + "ms"));
+                    }
+                },
+                SWITCH_TIMEOUT_MS);
+    }
+
+    /** Moves the foreground activity and the React root views to the new React instance */
+    private static void remountRoots(
+            Collection<?> attachedRoots,
+            ReactInstanceManager previousInstanceManager,
+            ReactInstanceManager instanceManager) {
+        ReactContext previousContext = previousInstanceManager.getCurrentReactContext();
+        Activity activity = previousContext == null ? null : previousContext.getCurrentActivity();
+        if (activity instanceof DefaultHardwareBackBtnHandler
+                && previousInstanceManager.getLifecycleState() == LifecycleState.RESUMED) {
+            instanceManager.onHostResume(activity, (DefaultHardwareBackBtnHandler) activity);
+        }
+
+        List<Object> roots;
+        synchronized (attachedRoots) {
+            roots = new ArrayList<Object>(attachedRoots);
+        }
+        for (Object root : roots) {
+            if (root instanceof ReactRootView) {
+                ReactRootView rootView = (ReactRootView) root;
+                String moduleName = rootView.getJSModuleName();
+                Bundle appProperties = rootView.getAppProperties();
+                rootView.unmountReactApplication();
+                rootView.startReactApplication(instanceManager, moduleName, appProperties);
+            }
+        }
+    }
+
+    private static Field getField(Class<?> clazz, String name) throws NoSuchFieldException {
+        Field field = clazz.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+    }
+
+    /** Returns the first declared field found, for fields renamed across RN versions */
+    private static Field getField(Class<?> clazz, String name, String previousName)
+            throws NoSuchFieldException {
+        try {
+            return getField(clazz, name);
+        } catch (NoSuchFieldException e) {
+            return getField(clazz, previousName);
+        }
+    }
+}
@@ -35,6 +35,13 @@ public class MainApplication extends Application implements ReactApplication {
         protected String getJSMainModuleName() {
           return "index";
         }
+
+        @Override
+        protected String getJSBundleFile() {
+          // Cold start from the LiveBundle bundle installed last, if any
+          String bundleFile = LiveBundle.getJSBundleFile(getApplication());
+          return bundleFile != null ? bundleFile : super.getJSBundleFile();
+        }
       };
 
   @Override